@@ -1,12 +1,21 @@
 package ru.ifmo.rain.akimov.arrayset;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.function.Consumer;
 
 //test21
 
 public class ArraySet<E> extends AbstractSet<E> implements NavigableSet<E> {
     private SortedList<E> data;
     private Comparator<? super E> comparator;
+    private BlockIndex<E> index;
 
     public ArraySet() {
         data = new SortedList<>(Collections.emptyList());
@@ -14,14 +23,11 @@ public class ArraySet<E> extends AbstractSet<E> implements NavigableSet<E> {
     }
 
     public ArraySet(Collection<? extends E> collection) {
-        data = new SortedList<>(new TreeSet<>(collection));
-        comparator = null;
+        this(collection, null);
     }
 
     public ArraySet(Collection<? extends E> collection, Comparator<? super E> comparator) {
-        Set<E> set = new TreeSet<>(comparator);
-        set.addAll(collection);
-        data = new SortedList<>(set);
+        data = new SortedList<>(toSortedList(collection, comparator));
         this.comparator = comparator;
     }
 
@@ -30,6 +36,55 @@ public class ArraySet<E> extends AbstractSet<E> implements NavigableSet<E> {
         this.comparator = comparator;
     }
 
+    /**
+     * Returns set with the same elements that answers point and neighbour queries through a two-level
+     * index: a flat copy of the element references split into blocks of a few cache lines, and an array
+     * of the first element of every block. A query searches the small top array, which stays in cache,
+     * and then one block, instead of probing all over the sorted list; see {@code ArraySetBenchmark}.
+     * Iteration and views still use the sorted list; views do not inherit the index.
+     *
+     * @return read-optimized set.
+     */
+    public ArraySet<E> withSearchIndex() {
+        final ArraySet<E> set = new ArraySet<>(data, comparator, false);
+        set.index = new BlockIndex<>(data, comparator);
+        return set;
+    }
+
+    @SuppressWarnings({"unchecked"})
+    private static <E> int compare(E first, E second, Comparator<? super E> comparator) {
+        if (comparator == null) {
+            return ((Comparable<E>) first).compareTo(second);
+        } else {
+            return comparator.compare(first, second);
+        }
+    }
+
+    /**
+     * Copies collection to an array, sorts it only if it is not sorted yet and drops duplicates in one pass.
+     */
+    @SuppressWarnings({"unchecked"})
+    private static <E> List<E> toSortedList(Collection<? extends E> collection, Comparator<? super E> comparator) {
+        final E[] array = (E[]) collection.toArray();
+        for (int i = 1; i < array.length; i++) {
+            if (compare(array[i - 1], array[i], comparator) > 0) {
+                Arrays.sort(array, comparator);
+                break;
+            }
+        }
+        int size = 0;
+        for (E element : array) {
+            if (size == 0 || compare(array[size - 1], element, comparator) != 0) {
+                array[size++] = element;
+            }
+        }
+        if (array.length == 1) {
+            // a single element is never compared above, but TreeSet used to reject a non-comparable one
+            compare(array[0], array[0], comparator);
+        }
+        return Arrays.asList(size == array.length ? array : Arrays.copyOf(array, size));
+    }
+
     @Override
     public int size() {
         return data.size();
@@ -40,6 +95,16 @@ public class ArraySet<E> extends AbstractSet<E> implements NavigableSet<E> {
         return data.iterator();
     }
 
+    /**
+     * Returns spliterator that splits by halving the index range, for this set and for all of its views.
+     *
+     * @return sized sorted spliterator over this set.
+     */
+    @Override
+    public Spliterator<E> spliterator() {
+        return new IndexSpliterator(0, data.size());
+    }
+
     @SuppressWarnings({"unchecked"})
     @Override
     public boolean contains(Object o) {
@@ -124,86 +189,267 @@ public class ArraySet<E> extends AbstractSet<E> implements NavigableSet<E> {
         return descendingSet().iterator();
     }
 
-    @SuppressWarnings({"unchecked"})
     private int compare(E first, E second) {
-        if (comparator == null) {
-            return ((Comparable<E>) first).compareTo(second);
-        } else {
-            return comparator.compare(first, second);
+        return compare(first, second, comparator);
+    }
+
+    private boolean isMergeable(Collection<?> other) {
+        return other instanceof ArraySet && Objects.equals(comparator, ((ArraySet<?>) other).comparator);
+    }
+
+    /**
+     * Returns the first position at or after {@code from} whose element is not less than {@code element}.
+     * Probes 1, 2, 4, ... elements ahead before the binary search, so short skips cost few comparisons.
+     */
+    private int gallop(int from, E element) {
+        int step = 1;
+        int left = from;
+        int right = from;
+        while (right < data.size() && compare(data.get(right), element) < 0) {
+            left = right + 1;
+            right += step;
+            step <<= 1;
+        }
+        right = Math.min(right, data.size());
+        while (left < right) {
+            final int middle = (left + right) >>> 1;
+            if (compare(data.get(middle), element) < 0) {
+                left = middle + 1;
+            } else {
+                right = middle;
+            }
+        }
+        return left;
+    }
+
+    @SuppressWarnings({"unchecked"})
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        if (!isMergeable(c)) {
+            return super.containsAll(c);
+        }
+        final ArraySet<E> other = (ArraySet<E>) c;
+        int pos = 0;
+        for (int i = 0; i < other.data.size(); i++) {
+            final E element = other.data.get(i);
+            pos = gallop(pos, element);
+            if (pos == data.size() || compare(data.get(pos), element) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns union of two sets. Sets with the same comparator are merged in one pass.
+     *
+     * @param first  first set, its comparator is used for the result.
+     * @param second second set.
+     * @return set of elements contained in any of the sets.
+     */
+    public static <E> ArraySet<E> union(ArraySet<E> first, ArraySet<E> second) {
+        if (!first.isMergeable(second)) {
+            final List<E> all = new ArrayList<>(first);
+            all.addAll(second);
+            return new ArraySet<>(all, first.comparator);
+        }
+        final List<E> ans = new ArrayList<>(first.size() + second.size());
+        int i = 0;
+        int j = 0;
+        while (i < first.size() && j < second.size()) {
+            final int nextI = first.gallop(i, second.data.get(j));
+            addRange(ans, first, i, nextI);
+            i = nextI;
+            if (i == first.size()) {
+                break;
+            }
+            final int nextJ = second.gallop(j, first.data.get(i));
+            addRange(ans, second, j, nextJ);
+            j = nextJ;
+            if (j < second.size() && first.compare(first.data.get(i), second.data.get(j)) == 0) {
+                j++;
+            }
+        }
+        addRange(ans, first, i, first.size());
+        addRange(ans, second, j, second.size());
+        return ofSorted(ans, first.comparator);
+    }
+
+    /**
+     * Returns intersection of two sets. Sets with the same comparator are merged in one pass,
+     * galloping over long runs of the bigger set.
+     *
+     * @param first  first set, its elements and comparator are used for the result.
+     * @param second second set.
+     * @return set of elements contained in both sets.
+     */
+    public static <E> ArraySet<E> intersection(ArraySet<E> first, ArraySet<E> second) {
+        return filter(first, second, true);
+    }
+
+    /**
+     * Returns difference of two sets. Sets with the same comparator are merged in one pass,
+     * galloping over long runs of the bigger set.
+     *
+     * @param first  set to remove elements from, its comparator is used for the result.
+     * @param second set of elements to remove.
+     * @return set of elements of {@code first} not contained in {@code second}.
+     */
+    public static <E> ArraySet<E> difference(ArraySet<E> first, ArraySet<E> second) {
+        return filter(first, second, false);
+    }
+
+    private static <E> ArraySet<E> filter(ArraySet<E> first, ArraySet<E> second, boolean contained) {
+        final List<E> ans = new ArrayList<>();
+        if (!first.isMergeable(second)) {
+            for (E element : first) {
+                if (second.contains(element) == contained) {
+                    ans.add(element);
+                }
+            }
+            return ofSorted(ans, first.comparator);
+        }
+        int i = 0;
+        int j = 0;
+        while (i < first.size() && j < second.size()) {
+            final int nextI = first.gallop(i, second.data.get(j));
+            if (!contained) {
+                addRange(ans, first, i, nextI);
+            }
+            i = nextI;
+            if (i == first.size()) {
+                break;
+            }
+            j = second.gallop(j, first.data.get(i));
+            if (j < second.size() && first.compare(first.data.get(i), second.data.get(j)) == 0) {
+                if (contained) {
+                    ans.add(first.data.get(i));
+                }
+                i++;
+                j++;
+            }
+        }
+        if (!contained) {
+            addRange(ans, first, i, first.size());
+        }
+        return ofSorted(ans, first.comparator);
+    }
+
+    /**
+     * Opens set stored in file as sorted distinct fixed-width keys, as written by {@link #write}.
+     * The file is memory-mapped and keys are decoded on access, so opening does not read the file
+     * and the heap does not hold the elements. Views share the mapping. The order of keys is trusted.
+     *
+     * @param file       file to open.
+     * @param codec      codec of keys.
+     * @param comparator comparator the keys are sorted by, {@code null} for natural order.
+     * @return read-only set over the file.
+     * @throws IOException if file could not be mapped.
+     */
+    public static <E> ArraySet<E> open(Path file, KeyCodec<E> codec, Comparator<? super E> comparator) throws IOException {
+        return ofSorted(new MappedList<>(file, codec), comparator);
+    }
+
+    /**
+     * Writes elements of this set in iteration order as fixed-width keys.
+     * The keys are written to a temporary file that then replaces {@code file}, so sets already
+     * opened from {@code file} keep their contents.
+     *
+     * @param file  file to write.
+     * @param codec codec of keys.
+     * @throws IOException if file could not be written.
+     */
+    public void write(Path file, KeyCodec<E> codec) throws IOException {
+        final Path parent = file.toAbsolutePath().getParent();
+        final Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            writeKeys(temp, codec);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
         }
     }
 
+    private void writeKeys(Path file, KeyCodec<E> codec) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(codec.width() * 8192);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int i = 0; i < data.size(); i++) {
+                if (buffer.position() == buffer.capacity()) {
+                    writeBuffer(channel, buffer);
+                }
+                codec.write(buffer, buffer.position(), data.get(i));
+                buffer.position(buffer.position() + codec.width());
+            }
+            writeBuffer(channel, buffer);
+        }
+    }
+
+    private static void writeBuffer(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static <E> void addRange(List<E> ans, ArraySet<E> set, int from, int to) {
+        for (int i = from; i < to; i++) {
+            ans.add(set.data.get(i));
+        }
+    }
+
+    static <E> ArraySet<E> ofSorted(List<E> sortedList, Comparator<? super E> comparator) {
+        return new ArraySet<>(new SortedList<>(sortedList), comparator, false);
+    }
+
     @Override
     public NavigableSet<E> subSet(E fromElement, boolean fromInclusive, E toElement, boolean toInclusive) {
         if (compare(fromElement, toElement) > 0) {
             throw new IllegalArgumentException();
         }
-        if (data.isEmpty()) {
-            return new ArraySet<>(Collections.emptyList(), comparator);
-        } else {
-            return getSubSet(fromElement, fromInclusive, toElement, toInclusive);
-        }
+        return getSubSet(getStartPosition(fromElement, fromInclusive), getEndPosition(toElement, toInclusive));
     }
 
     @Override
     public NavigableSet<E> headSet(E toElement, boolean inclusive) {
-        if (data.isEmpty()) {
-            return new ArraySet<>(Collections.emptyList(), comparator);
-        } else {
-            return getSubSet(first(), true, toElement, inclusive);
-        }
+        return getSubSet(0, getEndPosition(toElement, inclusive));
     }
 
     @Override
     public NavigableSet<E> tailSet(E fromElement, boolean inclusive) {
-        if (data.isEmpty()) {
-            return new ArraySet<>(Collections.emptyList(), comparator);
-        } else {
-            return getSubSet(fromElement, inclusive, last(), true);
-        }
-    }
-
-    private boolean areEquals(E first, E second) {
-        if (comparator == null) {
-            return first.equals(second);
-        } else {
-            return comparator.compare(first, second) == 0;
-        }
+        return getSubSet(getStartPosition(fromElement, inclusive), data.size());
     }
 
     private boolean checkPosition(int pos) {
         return pos >= 0 && pos < data.size();
     }
 
-    private boolean exists(int pos, E element) {
-        return checkPosition(pos) && areEquals(data.get(pos), element);
+    private int getStartPosition(E fromElement, boolean fromInclusive) {
+        return data.isEmpty() ? 0 : getPosition(fromElement, fromInclusive ? 0 : 1, 0);
     }
 
-    private NavigableSet<E> getSubSet(E fromElement, boolean fromInclusive, E toElement, boolean toInclusive) {
-        int startPos;
-        if (fromElement.equals(first())) {
-            startPos = 0;
-        } else {
-            startPos = getPosition(fromElement);
-        }
-        if (!fromInclusive && exists(startPos, fromElement)) {
-            startPos++;
-        }
-        int endPos;
-        if (toElement.equals(last())) {
-            endPos = data.size() - 1;
-        } else {
-            endPos = getPosition(toElement);
-        }
-        if (toInclusive && exists(endPos, toElement)) {
-            endPos++;
-        }
+    private int getEndPosition(E toElement, boolean toInclusive) {
+        return data.isEmpty() ? 0 : getPosition(toElement, toInclusive ? 1 : 0, 0);
+    }
+
+    /**
+     * Returns view of positions {@code [startPos, endPos)}. The view shares the backing list of this set,
+     * so it costs two small objects; an empty set or the whole range is this set itself.
+     */
+    private NavigableSet<E> getSubSet(int startPos, int endPos) {
         endPos = Math.max(endPos, startPos);
-        return new ArraySet<>(new SortedList<>(data.subList(startPos, endPos)), comparator, false);
+        if (startPos == 0 && endPos == data.size()) {
+            return this;
+        }
+        return new ArraySet<>(data.subList(startPos, endPos), comparator, false);
     }
 
     private int binarySearchWrapper(E element) {
-        return Collections.binarySearch(data, element, comparator);
+        if (index == null) {
+            return Collections.binarySearch(data, element, comparator);
+        }
+        final int pos = index.lowerBound(element);
+        return pos < data.size() && compare(index.get(pos), element) == 0 ? pos : ~pos;
     }
 
     private int getPosition(E element) {
@@ -221,7 +467,8 @@ public class ArraySet<E> extends AbstractSet<E> implements NavigableSet<E> {
 
     private E getElementOrNull(int pos) {
         if (checkPosition(pos)) {
-            return data.get(pos);
+            // the index copy was just searched, so its line is likely cached
+            return index == null ? data.get(pos) : index.get(pos);
         } else {
             return null;
         }
@@ -235,41 +482,144 @@ public class ArraySet<E> extends AbstractSet<E> implements NavigableSet<E> {
         }
     }
 
-    private static class SortedList<E> extends AbstractList<E> implements RandomAccess {
-        private boolean reversed;
-        private List<E> data;
+    private class IndexSpliterator implements Spliterator<E> {
+        private int index;
+        private final int fence;
+
+        public IndexSpliterator(int index, int fence) {
+            this.index = index;
+            this.fence = fence;
+        }
 
-        public SortedList(Collection<? extends E> sortedCollection) {
-            data = new ArrayList<>(sortedCollection);
-            reversed = false;
+        @Override
+        public boolean tryAdvance(Consumer<? super E> action) {
+            if (index < fence) {
+                action.accept(data.get(index++));
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super E> action) {
+            for (; index < fence; index++) {
+                action.accept(data.get(index));
+            }
         }
 
+        @Override
+        public Spliterator<E> trySplit() {
+            final int middle = (index + fence) >>> 1;
+            if (middle <= index) {
+                return null;
+            }
+            final Spliterator<E> prefix = new IndexSpliterator(index, middle);
+            index = middle;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return fence - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SORTED | DISTINCT | SIZED | SUBSIZED | IMMUTABLE;
+        }
+
+        @Override
+        public Comparator<? super E> getComparator() {
+            return comparator;
+        }
+    }
+
+    private static class BlockIndex<E> {
+        private static final int BLOCK = 32;
+
+        private final Object[] elements;
+        private final Object[] firsts;
+        private final Comparator<? super E> comparator;
+
+        public BlockIndex(List<E> sortedList, Comparator<? super E> comparator) {
+            this.comparator = comparator;
+            elements = sortedList.toArray();
+            firsts = new Object[(elements.length + BLOCK - 1) / BLOCK];
+            for (int i = 0; i < firsts.length; i++) {
+                firsts[i] = elements[i * BLOCK];
+            }
+        }
+
+        @SuppressWarnings({"unchecked"})
+        public E get(int pos) {
+            return (E) elements[pos];
+        }
+
+        /**
+         * Returns position of the first element not less than {@code element} in the sorted order.
+         */
+        public int lowerBound(E element) {
+            final int block = lowerBound(firsts, 0, firsts.length, element);
+            if (block == 0) {
+                return 0;
+            }
+            // the first element of the previous block is less than element
+            return lowerBound(elements, (block - 1) * BLOCK + 1, Math.min(block * BLOCK, elements.length), element);
+        }
+
+        @SuppressWarnings({"unchecked"})
+        private int lowerBound(Object[] array, int low, int high, E element) {
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (compare((E) array[middle], element, comparator) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * Range {@code [from, to)} of the shared backing list, possibly reversed. Ranges of ranges stay flat.
+     */
+    private static class SortedList<E> extends AbstractList<E> implements RandomAccess {
+        private final boolean reversed;
+        private final List<E> data;
+        private final int from;
+        private final int to;
+
         public SortedList(List<E> list) {
-            data = list;
-            reversed = false;
+            this(list, 0, list.size(), false);
         }
 
         public SortedList(SortedList<E> list, boolean isReversed) {
-            data = list.data;
-            reversed = isReversed;
+            this(list.data, list.from, list.to, isReversed);
         }
 
-        private int getReversedIndex(int index) {
-            return size() - index - 1;
+        private SortedList(List<E> data, int from, int to, boolean reversed) {
+            this.data = data;
+            this.from = from;
+            this.to = to;
+            this.reversed = reversed;
         }
 
         @Override
         public E get(int index) {
-            return data.get(reversed ? getReversedIndex(index) : index);
+            return data.get(reversed ? to - index - 1 : from + index);
         }
 
         @Override
         public int size() {
-            return data.size();
+            return to - from;
         }
 
-        public List<E> subList(int fromIndex, int toIndex) {
-            return reversed ? data.subList(getReversedIndex(toIndex) + 1, getReversedIndex(fromIndex) + 1) : data.subList(fromIndex, toIndex);
+        @Override
+        public SortedList<E> subList(int fromIndex, int toIndex) {
+            return reversed
+                    ? new SortedList<>(data, to - toIndex, to - fromIndex, true)
+                    : new SortedList<>(data, from + fromIndex, from + toIndex, false);
         }
 
         public boolean isReversed() {
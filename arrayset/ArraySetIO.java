@@ -0,0 +1,311 @@
+package ru.ifmo.rain.akimov.arrayset;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Compact binary format of {@link ArraySet}s of longs and strings.
+ * Longs are stored as zigzag varint deltas between neighbours, strings as the length of the prefix
+ * shared with the previous string followed by the UTF-8 suffix. Elements are written in iteration order
+ * and read straight into the backing array, so loading never sorts or compares.
+ * Reading from a channel buffers ahead, so the set has to be the last thing in the channel.
+ */
+public final class ArraySetIO {
+    private static final byte LONGS = 'L';
+    private static final byte STRINGS = 'S';
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private ArraySetIO() {
+    }
+
+    private interface Source {
+        byte readByte() throws IOException;
+
+        default long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < Long.SIZE; shift += 7) {
+                final byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        default void readFully(byte[] bytes) throws IOException {
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = readByte();
+            }
+        }
+    }
+
+    private interface Sink {
+        void writeByte(int b) throws IOException;
+
+        default void write(byte[] bytes) throws IOException {
+            for (byte b : bytes) {
+                writeByte(b);
+            }
+        }
+
+        default void flush() throws IOException {
+        }
+    }
+
+    private static class ChannelSource implements Source {
+        private final ReadableByteChannel channel;
+        private final ByteBuffer buffer;
+
+        public ChannelSource(ReadableByteChannel channel) {
+            this.channel = channel;
+            buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            buffer.flip();
+        }
+
+        @Override
+        public byte readByte() throws IOException {
+            if (!buffer.hasRemaining()) {
+                buffer.clear();
+                int read;
+                do {
+                    read = channel.read(buffer);
+                } while (read == 0);
+                buffer.flip();
+                if (read < 0) {
+                    throw new EOFException("Unexpected end of set");
+                }
+            }
+            return buffer.get();
+        }
+
+        @Override
+        public long readVarLong() throws IOException {
+            if (buffer.remaining() < 10) {
+                return Source.super.readVarLong();
+            }
+            long value = 0;
+            for (int shift = 0; shift < Long.SIZE; shift += 7) {
+                final byte b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+    }
+
+    private static class ChannelSink implements Sink {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer;
+
+        public ChannelSink(WritableByteChannel channel) {
+            this.channel = channel;
+            buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        }
+
+        @Override
+        public void writeByte(int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    private static void writeVarLong(Sink sink, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            sink.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        sink.writeByte((int) value);
+    }
+
+    private static int readSize(Source source) throws IOException {
+        final long size = source.readVarLong();
+        if (size < 0 || size > Integer.MAX_VALUE) {
+            throw new IOException("Invalid size " + size);
+        }
+        return (int) size;
+    }
+
+    private static void checkTag(Source source, byte expected) throws IOException {
+        final byte tag = source.readByte();
+        if (tag != expected) {
+            throw new IOException("Expected set of type " + (char) expected + ", found " + (char) tag);
+        }
+    }
+
+    private static void writeLongs(ArraySet<Long> set, Sink sink) throws IOException {
+        sink.writeByte(LONGS);
+        writeVarLong(sink, set.size());
+        long previous = 0;
+        for (long value : set) {
+            final long delta = value - previous;
+            writeVarLong(sink, (delta << 1) ^ (delta >> 63));
+            previous = value;
+        }
+        sink.flush();
+    }
+
+    private static ArraySet<Long> readLongs(Source source, Comparator<? super Long> comparator) throws IOException {
+        checkTag(source, LONGS);
+        final Long[] values = new Long[readSize(source)];
+        long previous = 0;
+        for (int i = 0; i < values.length; i++) {
+            final long zigzag = source.readVarLong();
+            previous += (zigzag >>> 1) ^ -(zigzag & 1);
+            values[i] = previous;
+        }
+        return ArraySet.ofSorted(Arrays.asList(values), comparator);
+    }
+
+    private static void writeStrings(ArraySet<String> set, Sink sink) throws IOException {
+        sink.writeByte(STRINGS);
+        writeVarLong(sink, set.size());
+        String previous = "";
+        for (String value : set) {
+            final int limit = Math.min(previous.length(), value.length());
+            int shared = 0;
+            while (shared < limit && previous.charAt(shared) == value.charAt(shared)) {
+                shared++;
+            }
+            if (shared > 0 && Character.isHighSurrogate(value.charAt(shared - 1))) {
+                shared--;
+            }
+            final byte[] suffix = value.substring(shared).getBytes(StandardCharsets.UTF_8);
+            writeVarLong(sink, shared);
+            writeVarLong(sink, suffix.length);
+            sink.write(suffix);
+            previous = value;
+        }
+        sink.flush();
+    }
+
+    private static ArraySet<String> readStrings(Source source, Comparator<? super String> comparator) throws IOException {
+        checkTag(source, STRINGS);
+        final String[] values = new String[readSize(source)];
+        String previous = "";
+        for (int i = 0; i < values.length; i++) {
+            final int shared = readSize(source);
+            if (shared > previous.length()) {
+                throw new IOException("Invalid shared prefix " + shared);
+            }
+            final byte[] suffix = new byte[readSize(source)];
+            source.readFully(suffix);
+            values[i] = previous.substring(0, shared) + new String(suffix, StandardCharsets.UTF_8);
+            previous = values[i];
+        }
+        return ArraySet.ofSorted(Arrays.asList(values), comparator);
+    }
+
+    /**
+     * Writes set of longs.
+     *
+     * @param set set to write.
+     * @param out destination.
+     * @throws IOException if {@code out} could not be written.
+     */
+    public static void writeLongs(ArraySet<Long> set, DataOutput out) throws IOException {
+        writeLongs(set, (Sink) out::writeByte);
+    }
+
+    /**
+     * Writes set of longs.
+     *
+     * @param set     set to write.
+     * @param channel destination.
+     * @throws IOException if {@code channel} could not be written.
+     */
+    public static void writeLongs(ArraySet<Long> set, WritableByteChannel channel) throws IOException {
+        writeLongs(set, new ChannelSink(channel));
+    }
+
+    /**
+     * Reads set of longs written by {@code writeLongs}.
+     *
+     * @param in         source.
+     * @param comparator comparator of the written set, {@code null} for natural order.
+     * @return read set.
+     * @throws IOException if {@code in} could not be read or does not contain a set of longs.
+     */
+    public static ArraySet<Long> readLongs(DataInput in, Comparator<? super Long> comparator) throws IOException {
+        return readLongs(in::readByte, comparator);
+    }
+
+    /**
+     * Reads set of longs written by {@code writeLongs}.
+     *
+     * @param channel    source.
+     * @param comparator comparator of the written set, {@code null} for natural order.
+     * @return read set.
+     * @throws IOException if {@code channel} could not be read or does not contain a set of longs.
+     */
+    public static ArraySet<Long> readLongs(ReadableByteChannel channel, Comparator<? super Long> comparator) throws IOException {
+        return readLongs(new ChannelSource(channel), comparator);
+    }
+
+    /**
+     * Writes set of strings.
+     *
+     * @param set set to write.
+     * @param out destination.
+     * @throws IOException if {@code out} could not be written.
+     */
+    public static void writeStrings(ArraySet<String> set, DataOutput out) throws IOException {
+        writeStrings(set, (Sink) out::writeByte);
+    }
+
+    /**
+     * Writes set of strings.
+     *
+     * @param set     set to write.
+     * @param channel destination.
+     * @throws IOException if {@code channel} could not be written.
+     */
+    public static void writeStrings(ArraySet<String> set, WritableByteChannel channel) throws IOException {
+        writeStrings(set, new ChannelSink(channel));
+    }
+
+    /**
+     * Reads set of strings written by {@code writeStrings}.
+     *
+     * @param in         source.
+     * @param comparator comparator of the written set, {@code null} for natural order.
+     * @return read set.
+     * @throws IOException if {@code in} could not be read or does not contain a set of strings.
+     */
+    public static ArraySet<String> readStrings(DataInput in, Comparator<? super String> comparator) throws IOException {
+        return readStrings(in::readByte, comparator);
+    }
+
+    /**
+     * Reads set of strings written by {@code writeStrings}.
+     *
+     * @param channel    source.
+     * @param comparator comparator of the written set, {@code null} for natural order.
+     * @return read set.
+     * @throws IOException if {@code channel} could not be read or does not contain a set of strings.
+     */
+    public static ArraySet<String> readStrings(ReadableByteChannel channel, Comparator<? super String> comparator) throws IOException {
+        return readStrings(new ChannelSource(channel), comparator);
+    }
+}
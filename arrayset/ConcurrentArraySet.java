@@ -0,0 +1,323 @@
+package ru.ifmo.rain.akimov.arrayset;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread-safe sorted set for many readers and rare writers.
+ * Readers work with an immutable {@link ArraySet} snapshot read from a volatile field and never block.
+ * Writers queue their updates; whichever writer gets the lock applies all queued updates at once,
+ * merging them into a new snapshot in linear time, and publishes it.
+ * Iterators and views are taken from the current snapshot and do not see later updates.
+ */
+public class ConcurrentArraySet<E> extends AbstractSet<E> implements NavigableSet<E> {
+    private final Comparator<? super E> comparator;
+    private final Queue<Update<E>> pending;
+    private final ReentrantLock lock;
+    private volatile ArraySet<E> snapshot;
+
+    private static class Update<E> {
+        private final E element;
+        private final boolean add;
+        private boolean result;
+        private RuntimeException failure;
+        private volatile boolean done;
+
+        public Update(E element, boolean add) {
+            this.element = element;
+            this.add = add;
+        }
+    }
+
+    public ConcurrentArraySet() {
+        this(Collections.emptyList(), null);
+    }
+
+    public ConcurrentArraySet(Comparator<? super E> comparator) {
+        this(Collections.emptyList(), comparator);
+    }
+
+    public ConcurrentArraySet(Collection<? extends E> collection, Comparator<? super E> comparator) {
+        this.comparator = comparator;
+        pending = new ConcurrentLinkedQueue<>();
+        lock = new ReentrantLock();
+        snapshot = new ArraySet<>(collection, comparator);
+    }
+
+    /**
+     * Returns current immutable state of this set.
+     *
+     * @return snapshot of this set.
+     */
+    public ArraySet<E> snapshot() {
+        return snapshot;
+    }
+
+    private void combine(Update<E> last) {
+        lock.lock();
+        try {
+            if (!last.done) {
+                applyPending();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Applies queued updates. An update whose element can not be compared fails alone:
+     * its exception is kept for the thread that queued it, and the rest of the batch is applied.
+     */
+    private void applyPending() {
+        final ArraySet<E> current = snapshot;
+        final List<Update<E>> updates = new ArrayList<>();
+        final NavigableMap<E, Boolean> changes = new TreeMap<>(comparator);
+        try {
+            for (Update<E> update = pending.poll(); update != null; update = pending.poll()) {
+                updates.add(update);
+                try {
+                    final Boolean changed = changes.get(update.element);
+                    final boolean present = changed != null ? changed : current.contains(update.element);
+                    changes.put(update.element, update.add);
+                    update.result = update.add != present;
+                } catch (RuntimeException e) {
+                    update.failure = e;
+                }
+            }
+            final List<E> added = new ArrayList<>();
+            final List<E> removed = new ArrayList<>();
+            for (Map.Entry<E, Boolean> change : changes.entrySet()) {
+                if (change.getValue() != current.contains(change.getKey())) {
+                    (change.getValue() ? added : removed).add(change.getKey());
+                }
+            }
+            if (!added.isEmpty() || !removed.isEmpty()) {
+                snapshot = ArraySet.difference(
+                        ArraySet.union(current, ArraySet.ofSorted(added, comparator)),
+                        ArraySet.ofSorted(removed, comparator));
+            }
+        } catch (RuntimeException e) {
+            for (Update<E> update : updates) {
+                if (update.failure == null) {
+                    update.result = false;
+                    update.failure = e;
+                }
+            }
+        } finally {
+            for (Update<E> update : updates) {
+                update.done = true;
+            }
+        }
+    }
+
+    private boolean update(E e, boolean add) {
+        Objects.requireNonNull(e);
+        final Update<E> update = new Update<>(e, add);
+        pending.add(update);
+        combine(update);
+        if (update.failure != null) {
+            throw update.failure;
+        }
+        return update.result;
+    }
+
+    private boolean updateAll(Collection<?> c, boolean add) {
+        final List<Update<E>> updates = new ArrayList<>(c.size());
+        for (Object o : c) {
+            @SuppressWarnings({"unchecked"}) final Update<E> update = new Update<>((E) Objects.requireNonNull(o), add);
+            updates.add(update);
+            pending.add(update);
+        }
+        if (updates.isEmpty()) {
+            return false;
+        }
+        combine(updates.get(updates.size() - 1));
+        boolean changed = false;
+        for (Update<E> update : updates) {
+            if (update.failure != null) {
+                throw update.failure;
+            }
+            changed |= update.result;
+        }
+        return changed;
+    }
+
+    @Override
+    public boolean add(E e) {
+        return update(e, true);
+    }
+
+    @SuppressWarnings({"unchecked"})
+    @Override
+    public boolean remove(Object o) {
+        return update((E) o, false);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends E> c) {
+        return updateAll(c, true);
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        return updateAll(c, false);
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            applyPending();
+            snapshot = ArraySet.ofSorted(Collections.emptyList(), comparator);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E pollFirst() {
+        while (true) {
+            final ArraySet<E> current = snapshot;
+            if (current.isEmpty()) {
+                return null;
+            }
+            final E first = current.first();
+            if (remove(first)) {
+                return first;
+            }
+        }
+    }
+
+    @Override
+    public E pollLast() {
+        while (true) {
+            final ArraySet<E> current = snapshot;
+            if (current.isEmpty()) {
+                return null;
+            }
+            final E last = current.last();
+            if (remove(last)) {
+                return last;
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return snapshot.size();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return snapshot.contains(o);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        final Iterator<E> iterator = snapshot.iterator();
+        return new Iterator<>() {
+            private E lastReturned = null;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public E next() {
+                lastReturned = iterator.next();
+                return lastReturned;
+            }
+
+            @Override
+            public void remove() {
+                if (lastReturned == null) {
+                    throw new IllegalStateException();
+                }
+                ConcurrentArraySet.this.remove(lastReturned);
+                lastReturned = null;
+            }
+        };
+    }
+
+    @Override
+    public Spliterator<E> spliterator() {
+        return snapshot.spliterator();
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public E first() {
+        return snapshot.first();
+    }
+
+    @Override
+    public E last() {
+        return snapshot.last();
+    }
+
+    @Override
+    public E lower(E e) {
+        return snapshot.lower(e);
+    }
+
+    @Override
+    public E floor(E e) {
+        return snapshot.floor(e);
+    }
+
+    @Override
+    public E ceiling(E e) {
+        return snapshot.ceiling(e);
+    }
+
+    @Override
+    public E higher(E e) {
+        return snapshot.higher(e);
+    }
+
+    @Override
+    public NavigableSet<E> descendingSet() {
+        return snapshot.descendingSet();
+    }
+
+    @Override
+    public Iterator<E> descendingIterator() {
+        return snapshot.descendingIterator();
+    }
+
+    @Override
+    public NavigableSet<E> subSet(E fromElement, boolean fromInclusive, E toElement, boolean toInclusive) {
+        return snapshot.subSet(fromElement, fromInclusive, toElement, toInclusive);
+    }
+
+    @Override
+    public NavigableSet<E> headSet(E toElement, boolean inclusive) {
+        return snapshot.headSet(toElement, inclusive);
+    }
+
+    @Override
+    public NavigableSet<E> tailSet(E fromElement, boolean inclusive) {
+        return snapshot.tailSet(fromElement, inclusive);
+    }
+
+    @Override
+    public SortedSet<E> subSet(E fromElement, E toElement) {
+        return snapshot.subSet(fromElement, toElement);
+    }
+
+    @Override
+    public SortedSet<E> headSet(E toElement) {
+        return snapshot.headSet(toElement);
+    }
+
+    @Override
+    public SortedSet<E> tailSet(E fromElement) {
+        return snapshot.tailSet(fromElement);
+    }
+}
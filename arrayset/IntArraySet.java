@@ -0,0 +1,260 @@
+package ru.ifmo.rain.akimov.arrayset;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable sorted set of {@code int} values stored in a plain {@code int[]}.
+ * Navigation methods return positions in this set (or {@code -1} if there is no such element),
+ * use {@link #get(int)} to read the value without boxing.
+ * Views returned by {@link #subSet}, {@link #headSet}, {@link #tailSet} and {@link #descendingSet()}
+ * share the array of this set.
+ */
+public class IntArraySet extends AbstractSet<Integer> {
+    private final int[] data;
+    private final int from;
+    private final int to;
+    private final boolean reversed;
+
+    public IntArraySet() {
+        this(new int[0], 0, 0, false);
+    }
+
+    public IntArraySet(final int... values) {
+        this(toSortedArray(values), false);
+    }
+
+    private IntArraySet(final int[] data, final boolean reversed) {
+        this(data, 0, data.length, reversed);
+    }
+
+    private IntArraySet(final int[] data, final int from, final int to, final boolean reversed) {
+        this.data = data;
+        this.from = from;
+        this.to = to;
+        this.reversed = reversed;
+    }
+
+    private static int[] toSortedArray(final int[] values) {
+        final int[] array = values.clone();
+        for (int i = 1; i < array.length; i++) {
+            if (array[i - 1] > array[i]) {
+                Arrays.sort(array);
+                break;
+            }
+        }
+        int size = 0;
+        for (int value : array) {
+            if (size == 0 || array[size - 1] != value) {
+                array[size++] = value;
+            }
+        }
+        return size == array.length ? array : Arrays.copyOf(array, size);
+    }
+
+    /**
+     * Returns absolute index of the first element not less than {@code key}.
+     */
+    private int lowerBound(final int key) {
+        int base = from;
+        int length = to - from;
+        if (length == 0) {
+            return from;
+        }
+        while (length > 1) {
+            final int half = length >>> 1;
+            base = data[base + half] < key ? base + half : base;
+            length -= half;
+        }
+        return data[base] < key ? base + 1 : base;
+    }
+
+    /**
+     * Returns absolute index of the first element greater than {@code key}.
+     */
+    private int upperBound(final int key) {
+        int base = from;
+        int length = to - from;
+        if (length == 0) {
+            return from;
+        }
+        while (length > 1) {
+            final int half = length >>> 1;
+            base = data[base + half] <= key ? base + half : base;
+            length -= half;
+        }
+        return data[base] <= key ? base + 1 : base;
+    }
+
+    private int toIndex(final int absolute) {
+        if (absolute < from || absolute >= to) {
+            return -1;
+        }
+        return reversed ? to - 1 - absolute : absolute - from;
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    /**
+     * Returns element at given position of this set.
+     *
+     * @param index position in iteration order.
+     * @return element at {@code index}.
+     * @throws IndexOutOfBoundsException if there is no such position.
+     */
+    public int get(final int index) {
+        Objects.checkIndex(index, size());
+        return data[reversed ? to - 1 - index : from + index];
+    }
+
+    public boolean contains(final int key) {
+        final int pos = lowerBound(key);
+        return pos < to && data[pos] == key;
+    }
+
+    @Override
+    public boolean contains(final Object o) {
+        return o instanceof Integer && contains((Integer) o);
+    }
+
+    public int first() {
+        checkSize();
+        return get(0);
+    }
+
+    public int last() {
+        checkSize();
+        return get(size() - 1);
+    }
+
+    private void checkSize() {
+        if (from == to) {
+            throw new NoSuchElementException();
+        }
+    }
+
+    /**
+     * Returns position of the greatest element strictly less than {@code key} in iteration order.
+     *
+     * @param key value to search.
+     * @return position of the element or {@code -1} if there is no such element.
+     */
+    public int lower(final int key) {
+        return toIndex(reversed ? upperBound(key) : lowerBound(key) - 1);
+    }
+
+    /**
+     * Returns position of the greatest element less than or equal to {@code key} in iteration order.
+     *
+     * @param key value to search.
+     * @return position of the element or {@code -1} if there is no such element.
+     */
+    public int floor(final int key) {
+        return toIndex(reversed ? lowerBound(key) : upperBound(key) - 1);
+    }
+
+    /**
+     * Returns position of the least element greater than or equal to {@code key} in iteration order.
+     *
+     * @param key value to search.
+     * @return position of the element or {@code -1} if there is no such element.
+     */
+    public int ceiling(final int key) {
+        return toIndex(reversed ? upperBound(key) - 1 : lowerBound(key));
+    }
+
+    /**
+     * Returns position of the least element strictly greater than {@code key} in iteration order.
+     *
+     * @param key value to search.
+     * @return position of the element or {@code -1} if there is no such element.
+     */
+    public int higher(final int key) {
+        return toIndex(reversed ? lowerBound(key) - 1 : upperBound(key));
+    }
+
+    public IntArraySet subSet(final int fromElement, final boolean fromInclusive, final int toElement, final boolean toInclusive) {
+        if (reversed ? fromElement < toElement : fromElement > toElement) {
+            throw new IllegalArgumentException();
+        }
+        return reversed
+                ? getSubSet(true, toElement, toInclusive, true, fromElement, fromInclusive)
+                : getSubSet(true, fromElement, fromInclusive, true, toElement, toInclusive);
+    }
+
+    public IntArraySet subSet(final int fromElement, final int toElement) {
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    public IntArraySet headSet(final int toElement, final boolean inclusive) {
+        return reversed
+                ? getSubSet(true, toElement, inclusive, false, 0, false)
+                : getSubSet(false, 0, false, true, toElement, inclusive);
+    }
+
+    public IntArraySet headSet(final int toElement) {
+        return headSet(toElement, false);
+    }
+
+    public IntArraySet tailSet(final int fromElement, final boolean inclusive) {
+        return reversed
+                ? getSubSet(false, 0, false, true, fromElement, inclusive)
+                : getSubSet(true, fromElement, inclusive, false, 0, false);
+    }
+
+    public IntArraySet tailSet(final int fromElement) {
+        return tailSet(fromElement, true);
+    }
+
+    private IntArraySet getSubSet(final boolean hasLow, final int low, final boolean lowInclusive,
+                                 final boolean hasHigh, final int high, final boolean highInclusive) {
+        final int left = hasLow ? (lowInclusive ? lowerBound(low) : upperBound(low)) : from;
+        final int right = hasHigh ? (highInclusive ? upperBound(high) : lowerBound(high)) : to;
+        return new IntArraySet(data, left, Math.max(left, right), reversed);
+    }
+
+    public IntArraySet descendingSet() {
+        return new IntArraySet(data, from, to, !reversed);
+    }
+
+    public int[] toPrimitiveArray() {
+        final int[] array = Arrays.copyOfRange(data, from, to);
+        if (reversed) {
+            for (int i = 0, j = array.length - 1; i < j; i++, j--) {
+                final int tmp = array[i];
+                array[i] = array[j];
+                array[j] = tmp;
+            }
+        }
+        return array;
+    }
+
+    public IntStream intStream() {
+        return reversed
+                ? IntStream.range(0, size()).map(this::get)
+                : Arrays.stream(data, from, to);
+    }
+
+    @Override
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < size();
+            }
+
+            @Override
+            public int nextInt() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return get(index++);
+            }
+        };
+    }
+}
@@ -0,0 +1,67 @@
+package ru.ifmo.rain.akimov.arrayset;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed-width binary representation of set elements.
+ */
+public interface KeyCodec<E> {
+    /**
+     * Returns number of bytes taken by one key.
+     *
+     * @return width of key in bytes.
+     */
+    int width();
+
+    /**
+     * Reads key at given absolute offset without moving the buffer position.
+     *
+     * @param buffer buffer to read from.
+     * @param offset offset of the key.
+     * @return decoded key.
+     */
+    E read(ByteBuffer buffer, int offset);
+
+    /**
+     * Writes key at given absolute offset without moving the buffer position.
+     *
+     * @param buffer buffer to write to.
+     * @param offset offset of the key.
+     * @param key    key to write.
+     */
+    void write(ByteBuffer buffer, int offset, E key);
+
+    KeyCodec<Integer> INT = new KeyCodec<>() {
+        @Override
+        public int width() {
+            return Integer.BYTES;
+        }
+
+        @Override
+        public Integer read(ByteBuffer buffer, int offset) {
+            return buffer.getInt(offset);
+        }
+
+        @Override
+        public void write(ByteBuffer buffer, int offset, Integer key) {
+            buffer.putInt(offset, key);
+        }
+    };
+
+    KeyCodec<Long> LONG = new KeyCodec<>() {
+        @Override
+        public int width() {
+            return Long.BYTES;
+        }
+
+        @Override
+        public Long read(ByteBuffer buffer, int offset) {
+            return buffer.getLong(offset);
+        }
+
+        @Override
+        public void write(ByteBuffer buffer, int offset, Long key) {
+            buffer.putLong(offset, key);
+        }
+    };
+}
@@ -0,0 +1,261 @@
+package ru.ifmo.rain.akimov.arrayset;
+
+import java.util.*;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * Immutable sorted set of {@code long} values stored in a plain {@code long[]}.
+ * Navigation methods return positions in this set (or {@code -1} if there is no such element),
+ * use {@link #get(int)} to read the value without boxing.
+ * Views returned by {@link #subSet}, {@link #headSet}, {@link #tailSet} and {@link #descendingSet()}
+ * share the array of this set.
+ */
+public class LongArraySet extends AbstractSet<Long> {
+    private final long[] data;
+    private final int from;
+    private final int to;
+    private final boolean reversed;
+
+    public LongArraySet() {
+        this(new long[0], 0, 0, false);
+    }
+
+    public LongArraySet(final long... values) {
+        this(toSortedArray(values), false);
+    }
+
+    private LongArraySet(final long[] data, final boolean reversed) {
+        this(data, 0, data.length, reversed);
+    }
+
+    private LongArraySet(final long[] data, final int from, final int to, final boolean reversed) {
+        this.data = data;
+        this.from = from;
+        this.to = to;
+        this.reversed = reversed;
+    }
+
+    private static long[] toSortedArray(final long[] values) {
+        final long[] array = values.clone();
+        for (int i = 1; i < array.length; i++) {
+            if (array[i - 1] > array[i]) {
+                Arrays.sort(array);
+                break;
+            }
+        }
+        int size = 0;
+        for (long value : array) {
+            if (size == 0 || array[size - 1] != value) {
+                array[size++] = value;
+            }
+        }
+        return size == array.length ? array : Arrays.copyOf(array, size);
+    }
+
+    /**
+     * Returns absolute index of the first element not less than {@code key}.
+     */
+    private int lowerBound(final long key) {
+        int base = from;
+        int length = to - from;
+        if (length == 0) {
+            return from;
+        }
+        while (length > 1) {
+            final int half = length >>> 1;
+            base = data[base + half] < key ? base + half : base;
+            length -= half;
+        }
+        return data[base] < key ? base + 1 : base;
+    }
+
+    /**
+     * Returns absolute index of the first element greater than {@code key}.
+     */
+    private int upperBound(final long key) {
+        int base = from;
+        int length = to - from;
+        if (length == 0) {
+            return from;
+        }
+        while (length > 1) {
+            final int half = length >>> 1;
+            base = data[base + half] <= key ? base + half : base;
+            length -= half;
+        }
+        return data[base] <= key ? base + 1 : base;
+    }
+
+    private int toIndex(final int absolute) {
+        if (absolute < from || absolute >= to) {
+            return -1;
+        }
+        return reversed ? to - 1 - absolute : absolute - from;
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    /**
+     * Returns element at given position of this set.
+     *
+     * @param index position in iteration order.
+     * @return element at {@code index}.
+     * @throws IndexOutOfBoundsException if there is no such position.
+     */
+    public long get(final int index) {
+        Objects.checkIndex(index, size());
+        return data[reversed ? to - 1 - index : from + index];
+    }
+
+    public boolean contains(final long key) {
+        final int pos = lowerBound(key);
+        return pos < to && data[pos] == key;
+    }
+
+    @Override
+    public boolean contains(final Object o) {
+        return o instanceof Long && contains((Long) o);
+    }
+
+    public long first() {
+        checkSize();
+        return get(0);
+    }
+
+    public long last() {
+        checkSize();
+        return get(size() - 1);
+    }
+
+    private void checkSize() {
+        if (from == to) {
+            throw new NoSuchElementException();
+        }
+    }
+
+    /**
+     * Returns position of the greatest element strictly less than {@code key} in iteration order.
+     *
+     * @param key value to search.
+     * @return position of the element or {@code -1} if there is no such element.
+     */
+    public int lower(final long key) {
+        return toIndex(reversed ? upperBound(key) : lowerBound(key) - 1);
+    }
+
+    /**
+     * Returns position of the greatest element less than or equal to {@code key} in iteration order.
+     *
+     * @param key value to search.
+     * @return position of the element or {@code -1} if there is no such element.
+     */
+    public int floor(final long key) {
+        return toIndex(reversed ? lowerBound(key) : upperBound(key) - 1);
+    }
+
+    /**
+     * Returns position of the least element greater than or equal to {@code key} in iteration order.
+     *
+     * @param key value to search.
+     * @return position of the element or {@code -1} if there is no such element.
+     */
+    public int ceiling(final long key) {
+        return toIndex(reversed ? upperBound(key) - 1 : lowerBound(key));
+    }
+
+    /**
+     * Returns position of the least element strictly greater than {@code key} in iteration order.
+     *
+     * @param key value to search.
+     * @return position of the element or {@code -1} if there is no such element.
+     */
+    public int higher(final long key) {
+        return toIndex(reversed ? lowerBound(key) - 1 : upperBound(key));
+    }
+
+    public LongArraySet subSet(final long fromElement, final boolean fromInclusive, final long toElement, final boolean toInclusive) {
+        if (reversed ? fromElement < toElement : fromElement > toElement) {
+            throw new IllegalArgumentException();
+        }
+        return reversed
+                ? getSubSet(true, toElement, toInclusive, true, fromElement, fromInclusive)
+                : getSubSet(true, fromElement, fromInclusive, true, toElement, toInclusive);
+    }
+
+    public LongArraySet subSet(final long fromElement, final long toElement) {
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    public LongArraySet headSet(final long toElement, final boolean inclusive) {
+        return reversed
+                ? getSubSet(true, toElement, inclusive, false, 0, false)
+                : getSubSet(false, 0, false, true, toElement, inclusive);
+    }
+
+    public LongArraySet headSet(final long toElement) {
+        return headSet(toElement, false);
+    }
+
+    public LongArraySet tailSet(final long fromElement, final boolean inclusive) {
+        return reversed
+                ? getSubSet(false, 0, false, true, fromElement, inclusive)
+                : getSubSet(true, fromElement, inclusive, false, 0, false);
+    }
+
+    public LongArraySet tailSet(final long fromElement) {
+        return tailSet(fromElement, true);
+    }
+
+    private LongArraySet getSubSet(final boolean hasLow, final long low, final boolean lowInclusive,
+                                 final boolean hasHigh, final long high, final boolean highInclusive) {
+        final int left = hasLow ? (lowInclusive ? lowerBound(low) : upperBound(low)) : from;
+        final int right = hasHigh ? (highInclusive ? upperBound(high) : lowerBound(high)) : to;
+        return new LongArraySet(data, left, Math.max(left, right), reversed);
+    }
+
+    public LongArraySet descendingSet() {
+        return new LongArraySet(data, from, to, !reversed);
+    }
+
+    public long[] toPrimitiveArray() {
+        final long[] array = Arrays.copyOfRange(data, from, to);
+        if (reversed) {
+            for (int i = 0, j = array.length - 1; i < j; i++, j--) {
+                final long tmp = array[i];
+                array[i] = array[j];
+                array[j] = tmp;
+            }
+        }
+        return array;
+    }
+
+    public LongStream longStream() {
+        return reversed
+                ? IntStream.range(0, size()).mapToLong(this::get)
+                : Arrays.stream(data, from, to);
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong iterator() {
+        return new PrimitiveIterator.OfLong() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < size();
+            }
+
+            @Override
+            public long nextLong() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return get(index++);
+            }
+        };
+    }
+}
@@ -0,0 +1,52 @@
+package ru.ifmo.rain.akimov.arrayset;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Read-only list of fixed-width keys decoded on access from a memory-mapped file.
+ * Files bigger than one mapping are split into several mapped segments.
+ */
+class MappedList<E> extends AbstractList<E> implements RandomAccess {
+    private static final int SEGMENT_BYTES = 1 << 30;
+
+    private final KeyCodec<E> codec;
+    private final MappedByteBuffer[] segments;
+    private final int keysPerSegment;
+    private final int size;
+
+    public MappedList(final Path file, final KeyCodec<E> codec) throws IOException {
+        this.codec = codec;
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long bytes = channel.size();
+            if (bytes % codec.width() != 0 || bytes / codec.width() > Integer.MAX_VALUE) {
+                throw new IOException("File size " + bytes + " is not a valid number of " + codec.width() + "-byte keys");
+            }
+            size = (int) (bytes / codec.width());
+            keysPerSegment = SEGMENT_BYTES / codec.width();
+            segments = new MappedByteBuffer[(int) ((size + (long) keysPerSegment - 1) / keysPerSegment)];
+            for (int i = 0; i < segments.length; i++) {
+                final long start = (long) i * keysPerSegment * codec.width();
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(bytes - start, (long) keysPerSegment * codec.width()));
+            }
+        }
+    }
+
+    @Override
+    public E get(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return codec.read(segments[index / keysPerSegment], (index % keysPerSegment) * codec.width());
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
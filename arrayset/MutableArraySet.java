@@ -0,0 +1,834 @@
+package ru.ifmo.rain.akimov.arrayset;
+
+import java.util.*;
+
+/**
+ * Mutable sorted set stored as a B+tree whose leaves are sorted arrays of up to {@value #LEAF_SIZE} elements
+ * linked in order. Lookups and updates take O(log n) comparisons and move at most one node of elements;
+ * nodes other than the root are kept at least half full by borrowing from or merging with a neighbour.
+ * All views are live.
+ */
+public class MutableArraySet<E> extends AbstractSet<E> implements NavigableSet<E> {
+    private static final int LEAF_SIZE = 64;
+    private static final int FANOUT = 64;
+
+    private final Comparator<? super E> comparator;
+    private Node<E> root;
+    private Leaf<E> head;
+    private Leaf<E> tail;
+    private int size;
+    private int modCount;
+
+    private abstract static class Node<E> {
+        protected int size;
+
+        public abstract E lowKey();
+    }
+
+    private static class Leaf<E> extends Node<E> {
+        private final E[] items;
+        private Leaf<E> prev;
+        private Leaf<E> next;
+
+        @SuppressWarnings({"unchecked"})
+        public Leaf() {
+            items = (E[]) new Object[LEAF_SIZE];
+        }
+
+        @Override
+        public E lowKey() {
+            return items[0];
+        }
+
+        public E last() {
+            return items[size - 1];
+        }
+
+        public void insert(int pos, E element) {
+            System.arraycopy(items, pos, items, pos + 1, size - pos);
+            items[pos] = element;
+            size++;
+        }
+
+        public E delete(int pos) {
+            final E element = items[pos];
+            System.arraycopy(items, pos + 1, items, pos, size - pos - 1);
+            items[--size] = null;
+            return element;
+        }
+
+        public Leaf<E> split() {
+            final Leaf<E> right = new Leaf<>();
+            final int half = size / 2;
+            right.size = size - half;
+            System.arraycopy(items, half, right.items, 0, right.size);
+            Arrays.fill(items, half, size, null);
+            size = half;
+            right.next = next;
+            right.prev = this;
+            if (next != null) {
+                next.prev = right;
+            }
+            next = right;
+            return right;
+        }
+
+        public void merge(Leaf<E> right) {
+            System.arraycopy(right.items, 0, items, size, right.size);
+            size += right.size;
+            next = right.next;
+            if (next != null) {
+                next.prev = this;
+            }
+        }
+    }
+
+    /**
+     * Inner node. {@code keys[i]} is a lower bound of subtree {@code children[i]}; elements of the subtree
+     * are less than {@code keys[i + 1]}.
+     */
+    private static class Inner<E> extends Node<E> {
+        private final E[] keys;
+        private final Node<E>[] children;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        public Inner() {
+            keys = (E[]) new Object[FANOUT];
+            children = (Node<E>[]) new Node[FANOUT];
+        }
+
+        @Override
+        public E lowKey() {
+            return keys[0];
+        }
+
+        public void insert(int pos, E key, Node<E> child) {
+            System.arraycopy(keys, pos, keys, pos + 1, size - pos);
+            System.arraycopy(children, pos, children, pos + 1, size - pos);
+            keys[pos] = key;
+            children[pos] = child;
+            size++;
+        }
+
+        public void delete(int pos) {
+            System.arraycopy(keys, pos + 1, keys, pos, size - pos - 1);
+            System.arraycopy(children, pos + 1, children, pos, size - pos - 1);
+            size--;
+            keys[size] = null;
+            children[size] = null;
+        }
+
+        public Inner<E> split() {
+            final Inner<E> right = new Inner<>();
+            final int half = size / 2;
+            right.size = size - half;
+            System.arraycopy(keys, half, right.keys, 0, right.size);
+            System.arraycopy(children, half, right.children, 0, right.size);
+            Arrays.fill(keys, half, size, null);
+            Arrays.fill(children, half, size, null);
+            size = half;
+            return right;
+        }
+
+        public void merge(Inner<E> right) {
+            System.arraycopy(right.keys, 0, keys, size, right.size);
+            System.arraycopy(right.children, 0, children, size, right.size);
+            size += right.size;
+        }
+    }
+
+    public MutableArraySet() {
+        this(Collections.emptyList(), null);
+    }
+
+    public MutableArraySet(Comparator<? super E> comparator) {
+        this(Collections.emptyList(), comparator);
+    }
+
+    public MutableArraySet(Collection<? extends E> collection) {
+        this(collection, null);
+    }
+
+    public MutableArraySet(Collection<? extends E> collection, Comparator<? super E> comparator) {
+        this.comparator = comparator;
+        reset();
+        modCount = 0;
+        addAll(collection);
+    }
+
+    private void reset() {
+        head = new Leaf<>();
+        tail = head;
+        root = head;
+        size = 0;
+    }
+
+    @SuppressWarnings({"unchecked"})
+    private int compare(E first, E second) {
+        if (comparator == null) {
+            return ((Comparable<E>) first).compareTo(second);
+        } else {
+            return comparator.compare(first, second);
+        }
+    }
+
+    private int childIndex(Inner<E> node, E element) {
+        int left = 0;
+        int right = node.size;
+        while (right - left > 1) {
+            final int middle = (left + right) >>> 1;
+            if (compare(node.keys[middle], element) <= 0) {
+                left = middle;
+            } else {
+                right = middle;
+            }
+        }
+        return left;
+    }
+
+    private Leaf<E> findLeaf(E element) {
+        Node<E> node = root;
+        while (node instanceof Inner) {
+            final Inner<E> inner = (Inner<E>) node;
+            node = inner.children[childIndex(inner, element)];
+        }
+        return (Leaf<E>) node;
+    }
+
+    private int search(Leaf<E> leaf, E element) {
+        return Arrays.binarySearch(leaf.items, 0, leaf.size, element, comparator);
+    }
+
+    private static <E> E firstFrom(Leaf<E> leaf, int pos) {
+        if (pos < leaf.size) {
+            return leaf.items[pos];
+        }
+        return leaf.next != null ? leaf.next.items[0] : null;
+    }
+
+    private static <E> E lastBefore(Leaf<E> leaf, int pos) {
+        if (pos > 0) {
+            return leaf.items[pos - 1];
+        }
+        return leaf.prev != null ? leaf.prev.last() : null;
+    }
+
+    private int getPosition(Leaf<E> leaf, E element, int addIfExists) {
+        final int pos = search(leaf, element);
+        return pos >= 0 ? pos + addIfExists : ~pos;
+    }
+
+    @Override
+    public E lower(E e) {
+        final Leaf<E> leaf = findLeaf(e);
+        return lastBefore(leaf, getPosition(leaf, e, 0));
+    }
+
+    @Override
+    public E floor(E e) {
+        final Leaf<E> leaf = findLeaf(e);
+        return lastBefore(leaf, getPosition(leaf, e, 1));
+    }
+
+    @Override
+    public E ceiling(E e) {
+        final Leaf<E> leaf = findLeaf(e);
+        return firstFrom(leaf, getPosition(leaf, e, 0));
+    }
+
+    @Override
+    public E higher(E e) {
+        final Leaf<E> leaf = findLeaf(e);
+        return firstFrom(leaf, getPosition(leaf, e, 1));
+    }
+
+    @SuppressWarnings({"unchecked"})
+    @Override
+    public boolean contains(Object o) {
+        final E element = (E) o;
+        return search(findLeaf(element), element) >= 0;
+    }
+
+    @Override
+    public boolean add(E e) {
+        Objects.requireNonNull(e);
+        final int oldSize = size;
+        final Node<E> split = insert(root, e);
+        if (split != null) {
+            final Inner<E> newRoot = new Inner<>();
+            newRoot.insert(0, root.lowKey(), root);
+            newRoot.insert(1, split.lowKey(), split);
+            root = newRoot;
+        }
+        return size != oldSize;
+    }
+
+    /**
+     * Inserts element into subtree.
+     *
+     * @return new right sibling of {@code node} if it was split, {@code null} otherwise.
+     */
+    private Node<E> insert(Node<E> node, E e) {
+        if (node instanceof Leaf) {
+            Leaf<E> leaf = (Leaf<E>) node;
+            int pos = search(leaf, e);
+            if (pos >= 0) {
+                return null;
+            }
+            pos = ~pos;
+            Leaf<E> split = null;
+            if (leaf.size == LEAF_SIZE) {
+                split = leaf.split();
+                if (tail == leaf) {
+                    tail = split;
+                }
+                if (pos > leaf.size) {
+                    pos -= leaf.size;
+                    leaf = split;
+                }
+            }
+            leaf.insert(pos, e);
+            size++;
+            modCount++;
+            return split;
+        }
+        final Inner<E> inner = (Inner<E>) node;
+        final int index = childIndex(inner, e);
+        final Node<E> child = insert(inner.children[index], e);
+        if (child == null) {
+            return null;
+        }
+        if (inner.size < FANOUT) {
+            inner.insert(index + 1, child.lowKey(), child);
+            return null;
+        }
+        final Inner<E> split = inner.split();
+        if (index + 1 <= inner.size) {
+            inner.insert(index + 1, child.lowKey(), child);
+        } else {
+            split.insert(index + 1 - inner.size, child.lowKey(), child);
+        }
+        return split;
+    }
+
+    @SuppressWarnings({"unchecked"})
+    @Override
+    public boolean remove(Object o) {
+        final int oldSize = size;
+        delete(root, (E) o);
+        while (root instanceof Inner && root.size == 1) {
+            root = ((Inner<E>) root).children[0];
+        }
+        return size != oldSize;
+    }
+
+    private void delete(Node<E> node, E e) {
+        if (node instanceof Leaf) {
+            final Leaf<E> leaf = (Leaf<E>) node;
+            final int pos = search(leaf, e);
+            if (pos >= 0) {
+                leaf.delete(pos);
+                size--;
+                modCount++;
+            }
+            return;
+        }
+        final Inner<E> inner = (Inner<E>) node;
+        final int index = childIndex(inner, e);
+        final Node<E> child = inner.children[index];
+        delete(child, e);
+        if (child.size < (child instanceof Leaf ? LEAF_SIZE : FANOUT) / 2) {
+            rebalance(inner, index);
+        }
+    }
+
+    /**
+     * Refills underfull child by borrowing an entry from a neighbour, or merges it with one.
+     */
+    private void rebalance(Inner<E> parent, int index) {
+        final int min = (parent.children[index] instanceof Leaf ? LEAF_SIZE : FANOUT) / 2;
+        if (index > 0 && parent.children[index - 1].size > min) {
+            borrowFromLeft(parent, index);
+        } else if (index + 1 < parent.size && parent.children[index + 1].size > min) {
+            borrowFromRight(parent, index);
+        } else if (index > 0) {
+            merge(parent, index - 1);
+        } else if (index + 1 < parent.size) {
+            merge(parent, index);
+        }
+    }
+
+    private void borrowFromLeft(Inner<E> parent, int index) {
+        final Node<E> node = parent.children[index];
+        if (node instanceof Leaf) {
+            final Leaf<E> left = (Leaf<E>) parent.children[index - 1];
+            final Leaf<E> leaf = (Leaf<E>) node;
+            leaf.insert(0, left.delete(left.size - 1));
+            parent.keys[index] = leaf.items[0];
+        } else {
+            final Inner<E> left = (Inner<E>) parent.children[index - 1];
+            final Inner<E> inner = (Inner<E>) node;
+            final int last = left.size - 1;
+            inner.insert(0, left.keys[last], left.children[last]);
+            left.delete(last);
+            parent.keys[index] = inner.keys[0];
+        }
+    }
+
+    private void borrowFromRight(Inner<E> parent, int index) {
+        final Node<E> node = parent.children[index];
+        if (node instanceof Leaf) {
+            final Leaf<E> right = (Leaf<E>) parent.children[index + 1];
+            final Leaf<E> leaf = (Leaf<E>) node;
+            leaf.insert(leaf.size, right.delete(0));
+            parent.keys[index + 1] = right.items[0];
+        } else {
+            final Inner<E> right = (Inner<E>) parent.children[index + 1];
+            final Inner<E> inner = (Inner<E>) node;
+            inner.insert(inner.size, right.keys[0], right.children[0]);
+            right.delete(0);
+            parent.keys[index + 1] = right.keys[0];
+        }
+    }
+
+    private void merge(Inner<E> parent, int index) {
+        final Node<E> left = parent.children[index];
+        final Node<E> right = parent.children[index + 1];
+        if (left instanceof Leaf) {
+            ((Leaf<E>) left).merge((Leaf<E>) right);
+            if (tail == right) {
+                tail = (Leaf<E>) left;
+            }
+        } else {
+            ((Inner<E>) left).merge((Inner<E>) right);
+        }
+        parent.delete(index + 1);
+    }
+
+    @Override
+    public void clear() {
+        reset();
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public E first() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return head.items[0];
+    }
+
+    @Override
+    public E last() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return tail.last();
+    }
+
+    @Override
+    public E pollFirst() {
+        if (size == 0) {
+            return null;
+        }
+        final E first = head.items[0];
+        remove(first);
+        return first;
+    }
+
+    @Override
+    public E pollLast() {
+        if (size == 0) {
+            return null;
+        }
+        final E last = tail.last();
+        remove(last);
+        return last;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<>() {
+            private Leaf<E> leaf = head;
+            private int pos = 0;
+            private E lastReturned = null;
+            private int expectedModCount = modCount;
+
+            @Override
+            public boolean hasNext() {
+                checkModCount();
+                return pos < leaf.size || leaf.next != null;
+            }
+
+            @Override
+            public E next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (pos == leaf.size) {
+                    leaf = leaf.next;
+                    pos = 0;
+                }
+                lastReturned = leaf.items[pos++];
+                return lastReturned;
+            }
+
+            @Override
+            public void remove() {
+                if (lastReturned == null) {
+                    throw new IllegalStateException();
+                }
+                checkModCount();
+                MutableArraySet.this.remove(lastReturned);
+                leaf = findLeaf(lastReturned);
+                pos = getPosition(leaf, lastReturned, 0);
+                lastReturned = null;
+                expectedModCount = modCount;
+            }
+
+            private void checkModCount() {
+                if (expectedModCount != modCount) {
+                    throw new ConcurrentModificationException();
+                }
+            }
+        };
+    }
+
+    @Override
+    public NavigableSet<E> descendingSet() {
+        return new View(false, null, false, false, null, false, true);
+    }
+
+    @Override
+    public Iterator<E> descendingIterator() {
+        return descendingSet().iterator();
+    }
+
+    @Override
+    public NavigableSet<E> subSet(E fromElement, boolean fromInclusive, E toElement, boolean toInclusive) {
+        if (compare(fromElement, toElement) > 0) {
+            throw new IllegalArgumentException();
+        }
+        return new View(true, fromElement, fromInclusive, true, toElement, toInclusive, false);
+    }
+
+    @Override
+    public NavigableSet<E> headSet(E toElement, boolean inclusive) {
+        return new View(false, null, false, true, toElement, inclusive, false);
+    }
+
+    @Override
+    public NavigableSet<E> tailSet(E fromElement, boolean inclusive) {
+        return new View(true, fromElement, inclusive, false, null, false, false);
+    }
+
+    @Override
+    public SortedSet<E> subSet(E fromElement, E toElement) {
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    @Override
+    public SortedSet<E> headSet(E toElement) {
+        return headSet(toElement, false);
+    }
+
+    @Override
+    public SortedSet<E> tailSet(E fromElement) {
+        return tailSet(fromElement, true);
+    }
+
+    private class View extends AbstractSet<E> implements NavigableSet<E> {
+        private final boolean hasLow;
+        private final E low;
+        private final boolean lowInclusive;
+        private final boolean hasHigh;
+        private final E high;
+        private final boolean highInclusive;
+        private final boolean descending;
+
+        public View(boolean hasLow, E low, boolean lowInclusive, boolean hasHigh, E high, boolean highInclusive, boolean descending) {
+            this.hasLow = hasLow;
+            this.low = low;
+            this.lowInclusive = lowInclusive;
+            this.hasHigh = hasHigh;
+            this.high = high;
+            this.highInclusive = highInclusive;
+            this.descending = descending;
+        }
+
+        private boolean tooLow(E e) {
+            if (!hasLow) {
+                return false;
+            }
+            final int cmp = compare(e, low);
+            return cmp < 0 || (cmp == 0 && !lowInclusive);
+        }
+
+        private boolean tooHigh(E e) {
+            if (!hasHigh) {
+                return false;
+            }
+            final int cmp = compare(e, high);
+            return cmp > 0 || (cmp == 0 && !highInclusive);
+        }
+
+        private boolean inRange(E e) {
+            return !tooLow(e) && !tooHigh(e);
+        }
+
+        private boolean inClosedRange(E e) {
+            return (!hasLow || compare(e, low) >= 0) && (!hasHigh || compare(e, high) <= 0);
+        }
+
+        private E checkHigh(E e) {
+            return e == null || tooHigh(e) ? null : e;
+        }
+
+        private E checkLow(E e) {
+            return e == null || tooLow(e) ? null : e;
+        }
+
+        private E absLowest() {
+            if (!hasLow) {
+                return checkHigh(size == 0 ? null : MutableArraySet.this.first());
+            }
+            return checkHigh(lowInclusive ? MutableArraySet.this.ceiling(low) : MutableArraySet.this.higher(low));
+        }
+
+        private E absHighest() {
+            if (!hasHigh) {
+                return checkLow(size == 0 ? null : MutableArraySet.this.last());
+            }
+            return checkLow(highInclusive ? MutableArraySet.this.floor(high) : MutableArraySet.this.lower(high));
+        }
+
+        private E absCeiling(E e) {
+            return tooLow(e) ? absLowest() : checkHigh(MutableArraySet.this.ceiling(e));
+        }
+
+        private E absHigher(E e) {
+            return tooLow(e) ? absLowest() : checkHigh(MutableArraySet.this.higher(e));
+        }
+
+        private E absFloor(E e) {
+            return tooHigh(e) ? absHighest() : checkLow(MutableArraySet.this.floor(e));
+        }
+
+        private E absLower(E e) {
+            return tooHigh(e) ? absHighest() : checkLow(MutableArraySet.this.lower(e));
+        }
+
+        @Override
+        public E lower(E e) {
+            return descending ? absHigher(e) : absLower(e);
+        }
+
+        @Override
+        public E floor(E e) {
+            return descending ? absCeiling(e) : absFloor(e);
+        }
+
+        @Override
+        public E ceiling(E e) {
+            return descending ? absFloor(e) : absCeiling(e);
+        }
+
+        @Override
+        public E higher(E e) {
+            return descending ? absLower(e) : absHigher(e);
+        }
+
+        private E firstOrNull() {
+            return descending ? absHighest() : absLowest();
+        }
+
+        private E lastOrNull() {
+            return descending ? absLowest() : absHighest();
+        }
+
+        @Override
+        public E first() {
+            final E e = firstOrNull();
+            if (e == null) {
+                throw new NoSuchElementException();
+            }
+            return e;
+        }
+
+        @Override
+        public E last() {
+            final E e = lastOrNull();
+            if (e == null) {
+                throw new NoSuchElementException();
+            }
+            return e;
+        }
+
+        @Override
+        public E pollFirst() {
+            final E e = firstOrNull();
+            if (e != null) {
+                MutableArraySet.this.remove(e);
+            }
+            return e;
+        }
+
+        @Override
+        public E pollLast() {
+            final E e = lastOrNull();
+            if (e != null) {
+                MutableArraySet.this.remove(e);
+            }
+            return e;
+        }
+
+        @SuppressWarnings({"unchecked"})
+        @Override
+        public boolean contains(Object o) {
+            return inRange((E) o) && MutableArraySet.this.contains(o);
+        }
+
+        @Override
+        public boolean add(E e) {
+            if (!inRange(e)) {
+                throw new IllegalArgumentException("Element is out of range");
+            }
+            return MutableArraySet.this.add(e);
+        }
+
+        @SuppressWarnings({"unchecked"})
+        @Override
+        public boolean remove(Object o) {
+            return inRange((E) o) && MutableArraySet.this.remove(o);
+        }
+
+        @Override
+        public int size() {
+            int count = 0;
+            for (E ignored : this) {
+                count++;
+            }
+            return count;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return firstOrNull() == null;
+        }
+
+        @Override
+        public Comparator<? super E> comparator() {
+            if (!descending) {
+                return comparator;
+            }
+            return comparator == null ? Collections.reverseOrder() : comparator.reversed();
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return new Iterator<>() {
+                private E next = firstOrNull();
+                private E lastReturned = null;
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public E next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    lastReturned = next;
+                    next = higher(next);
+                    return lastReturned;
+                }
+
+                @Override
+                public void remove() {
+                    if (lastReturned == null) {
+                        throw new IllegalStateException();
+                    }
+                    MutableArraySet.this.remove(lastReturned);
+                    lastReturned = null;
+                }
+            };
+        }
+
+        @Override
+        public Iterator<E> descendingIterator() {
+            return descendingSet().iterator();
+        }
+
+        @Override
+        public NavigableSet<E> descendingSet() {
+            return new View(hasLow, low, lowInclusive, hasHigh, high, highInclusive, !descending);
+        }
+
+        private NavigableSet<E> absSubSet(boolean hasFrom, E from, boolean fromInclusive, boolean hasTo, E to, boolean toInclusive) {
+            if (hasFrom && !inClosedRange(from) || hasTo && !inClosedRange(to)) {
+                throw new IllegalArgumentException("Bound is out of range");
+            }
+            if (!hasFrom) {
+                from = low;
+                fromInclusive = lowInclusive;
+            }
+            if (!hasTo) {
+                to = high;
+                toInclusive = highInclusive;
+            }
+            return new View(hasFrom || hasLow, from, fromInclusive, hasTo || hasHigh, to, toInclusive, descending);
+        }
+
+        @Override
+        public NavigableSet<E> subSet(E fromElement, boolean fromInclusive, E toElement, boolean toInclusive) {
+            if (compare(fromElement, toElement) * (descending ? -1 : 1) > 0) {
+                throw new IllegalArgumentException();
+            }
+            return descending
+                    ? absSubSet(true, toElement, toInclusive, true, fromElement, fromInclusive)
+                    : absSubSet(true, fromElement, fromInclusive, true, toElement, toInclusive);
+        }
+
+        @Override
+        public NavigableSet<E> headSet(E toElement, boolean inclusive) {
+            return descending
+                    ? absSubSet(true, toElement, inclusive, false, null, false)
+                    : absSubSet(false, null, false, true, toElement, inclusive);
+        }
+
+        @Override
+        public NavigableSet<E> tailSet(E fromElement, boolean inclusive) {
+            return descending
+                    ? absSubSet(false, null, false, true, fromElement, inclusive)
+                    : absSubSet(true, fromElement, inclusive, false, null, false);
+        }
+
+        @Override
+        public SortedSet<E> subSet(E fromElement, E toElement) {
+            return subSet(fromElement, true, toElement, false);
+        }
+
+        @Override
+        public SortedSet<E> headSet(E toElement) {
+            return headSet(toElement, false);
+        }
+
+        @Override
+        public SortedSet<E> tailSet(E fromElement) {
+            return tailSet(fromElement, true);
+        }
+    }
+}
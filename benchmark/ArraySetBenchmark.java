@@ -0,0 +1,62 @@
+package ru.ifmo.rain.akimov.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.ifmo.rain.akimov.arrayset.ArraySet;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArraySetBenchmark {
+    private static final int QUERIES = 1 << 12;
+
+    @Param({"1000", "100000", "4000000"})
+    private int size;
+
+    @Param({"binary", "blocked"})
+    private String layout;
+
+    private ArraySet<Integer> set;
+    private Integer[] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final List<Integer> values = IntStream.range(0, size).map(i -> 2 * i).boxed().collect(Collectors.toList());
+        final ArraySet<Integer> plain = new ArraySet<>(values);
+        set = layout.equals("blocked") ? plain.withSearchIndex() : plain;
+        final Random random = new Random(239);
+        queries = new Integer[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = random.nextInt(2 * size);
+        }
+    }
+
+    private Integer nextQuery() {
+        next = (next + 1) & (QUERIES - 1);
+        return queries[next];
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return set.contains(nextQuery());
+    }
+
+    @Benchmark
+    public Integer floor() {
+        return set.floor(nextQuery());
+    }
+
+    @Benchmark
+    public Integer ceiling() {
+        return set.ceiling(nextQuery());
+    }
+}
@@ -0,0 +1,99 @@
+package ru.ifmo.rain.akimov.benchmark;
+
+import info.kgeorgiy.java.advanced.concurrent.AdvancedIP;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.ifmo.rain.akimov.concurrent.IterativeParallelism;
+import ru.ifmo.rain.akimov.concurrent.ParallelMapperImpl;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    private int size;
+
+    @Param({"1", "4", "16"})
+    private int threads;
+
+    @Param({"0", "100"})
+    private int cost;
+
+    @Param({"threads", "mapper", "forkjoin"})
+    private String engine;
+
+    private List<Integer> values;
+    private ParallelMapperImpl parallelMapper;
+    private ForkJoinPool forkJoinPool;
+    private IterativeParallelism iterativeParallelism;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        values = IntStream.range(0, size).boxed().collect(Collectors.toList());
+        switch (engine) {
+            case "threads":
+                iterativeParallelism = new IterativeParallelism();
+                break;
+            case "mapper":
+                parallelMapper = new ParallelMapperImpl(threads);
+                iterativeParallelism = new IterativeParallelism(parallelMapper);
+                break;
+            case "forkjoin":
+                forkJoinPool = new ForkJoinPool(threads);
+                iterativeParallelism = IterativeParallelism.withForkJoinPool(forkJoinPool);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown engine " + engine);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (parallelMapper != null) {
+            parallelMapper.close();
+        }
+        if (forkJoinPool != null) {
+            forkJoinPool.shutdown();
+        }
+    }
+
+    private int work(final int value) {
+        Blackhole.consumeCPU(cost);
+        return value;
+    }
+
+    @Benchmark
+    public List<Integer> map() throws InterruptedException {
+        return iterativeParallelism.map(threads, values, this::work);
+    }
+
+    @Benchmark
+    public Integer reduce() throws InterruptedException {
+        return iterativeParallelism.mapReduce(threads, values, this::work, new AdvancedIP.Monoid<>(0, Integer::sum));
+    }
+
+    @Benchmark
+    public List<Integer> filter() throws InterruptedException {
+        return iterativeParallelism.filter(threads, values, value -> (work(value) & 1) == 0);
+    }
+
+    @Benchmark
+    public Integer maximum() throws InterruptedException {
+        return iterativeParallelism.maximum(threads, values, Comparator.comparingInt(this::work));
+    }
+
+    @Benchmark
+    public String join() throws InterruptedException {
+        return iterativeParallelism.join(threads, values);
+    }
+}
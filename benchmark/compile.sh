@@ -0,0 +1,10 @@
+#!/usr/bin/env bash
+cd ../../../../../
+pp=${PWD##*/}
+cd ..
+rm -r out/production/Benchmark 2>/dev/null
+mkdir -p out/production/Benchmark
+cd $pp
+cd ru/ifmo/rain/akimov
+lib=../../../../../lib
+javac -classpath $lib/jmh-core-1.23.jar:$lib/jmh-generator-annprocess-1.23.jar:$lib/info.kgeorgiy.java.advanced.mapper.jar -d ../../../../../out/production/Benchmark/ concurrent/*.java arrayset/*.java benchmark/*.java
@@ -0,0 +1,5 @@
+#!/usr/bin/env bash
+./compile.sh
+cd ../../../../../../out/production/Benchmark/
+lib=../../../lib
+java -cp .:$lib/jmh-core-1.23.jar:$lib/jopt-simple-4.6.jar:$lib/commons-math3-3.2.jar:$lib/info.kgeorgiy.java.advanced.mapper.jar org.openjdk.jmh.Main -rf json -rff ../../../benchmark-$(date +%Y%m%d-%H%M%S).json "$@"
@@ -3,14 +3,39 @@ package ru.ifmo.rain.akimov.concurrent;
 import info.kgeorgiy.java.advanced.concurrent.AdvancedIP;
 import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
 import java.util.function.Function;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntUnaryOperator;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongUnaryOperator;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class IterativeParallelism implements AdvancedIP {
     private final ParallelMapper parallelMapper;
+    private final ExecutorService executor;
+    private final ForkJoinPool forkJoinPool;
+
+    private static final int LEAVES_PER_THREAD = 8;
+
+    private static final ExecutorService SHARED_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+    });
 
     private <T> List<Stream<T>> divide(int n, List<T> values) {
         List<T> optList = (values instanceof RandomAccess) ? values : new ArrayList<>(values);
@@ -26,51 +51,104 @@ public class IterativeParallelism implements AdvancedIP {
         return ans;
     }
 
-    private <T, U> List<U> parodyToParallelMapper(Function<Stream<T>, U> function, List<Stream<T>> streams, int threads) throws InterruptedException {
-        List<Thread> runningThreads = new ArrayList<>(threads);
-        List<U> newValues = new ArrayList<>(Collections.nCopies(threads, null));
-        for (Stream<T> stream : streams) {
-            final int num = runningThreads.size();
-            runningThreads.add(new Thread(() -> {
-                U ans = function.apply(stream);
-                synchronized (newValues) {
-                    newValues.set(num, ans);
-                }
-            }));
-            runningThreads.get(num).start();
-        }
-        List<InterruptedException> exceptionsByThreads = new ArrayList<>();
-        boolean isInterrupt = false;
-        for (Thread runningThread : runningThreads) {
-            try {
-                if (isInterrupt) {
-                    runningThread.interrupt();
-                }
-                runningThread.join();
-            } catch (InterruptedException e) {
-                exceptionsByThreads.add(e);
-                isInterrupt = true;
-            }
+    private <S, U> List<U> parodyToParallelMapper(Function<S, U> function, List<S> args, ExecutorService executor) throws InterruptedException {
+        List<Future<U>> futures = new ArrayList<>(args.size());
+        for (S arg : args) {
+            futures.add(executor.submit(() -> function.apply(arg)));
         }
-        if (!exceptionsByThreads.isEmpty()) {
-            InterruptedException e = new InterruptedException();
-            for (Exception exc : exceptionsByThreads) {
-                e.addSuppressed(exc);
+        List<U> newValues = new ArrayList<>(args.size());
+        try {
+            for (Future<U> future : futures) {
+                newValues.add(future.get());
             }
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
             throw e;
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw rethrow(e);
+        }
+        return newValues;
+    }
+
+    private static RuntimeException rethrow(ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+            return (RuntimeException) e.getCause();
+        } else if (e.getCause() instanceof Error) {
+            throw (Error) e.getCause();
         } else {
-            return newValues;
+            return new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static class SplitTask<T, U> extends RecursiveTask<List<U>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<T> values;
+        private final int threshold;
+        private final Function<Stream<T>, U> function;
+
+        public SplitTask(List<T> values, int threshold, Function<Stream<T>, U> function) {
+            this.values = values;
+            this.threshold = threshold;
+            this.function = function;
+        }
+
+        @Override
+        protected List<U> compute() {
+            if (values.size() <= threshold) {
+                return new ArrayList<>(Collections.singletonList(function.apply(values.stream())));
+            }
+            final int middle = values.size() / 2;
+            final SplitTask<T, U> right = new SplitTask<>(values.subList(middle, values.size()), threshold, function);
+            right.fork();
+            final List<U> ans = new SplitTask<>(values.subList(0, middle), threshold, function).compute();
+            ans.addAll(right.join());
+            return ans;
+        }
+    }
+
+    private <T, U> List<U> forkJoin(int threads, List<T> values, Function<Stream<T>, U> function) throws InterruptedException {
+        if (values.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<T> optList = (values instanceof RandomAccess) ? values : new ArrayList<>(values);
+        final int threshold = Math.max(1, optList.size() / (threads * LEAVES_PER_THREAD));
+        try {
+            return forkJoinPool.submit(new SplitTask<>(optList, threshold, function)).get();
+        } catch (ExecutionException e) {
+            throw rethrow(e);
         }
     }
 
     private <T, U> List<U> parallel(int threads, List<T> values, Function<Stream<T>, U> function) throws InterruptedException {
         threads = Math.min(threads, values.size());
-        List<Stream<T>> streams = divide(threads, values);
-        if (parallelMapper == null) {
-            return parodyToParallelMapper(function, streams, threads);
+        if (forkJoinPool != null) {
+            return forkJoin(threads, values, function);
+        }
+        return run(function, divide(threads, values));
+    }
+
+    private <S, U> List<U> run(Function<S, U> function, List<S> args) throws InterruptedException {
+        if (parallelMapper != null) {
+            return parallelMapper.map(function, args);
         } else {
-            return parallelMapper.map(function, streams);
+            return parodyToParallelMapper(function, args, executor != null ? executor : forkJoinPool);
+        }
+    }
+
+    private <U> List<U> parallelRanges(int threads, int size, BiFunction<Integer, Integer, U> function) throws InterruptedException {
+        threads = Math.min(threads, size);
+        int rest = size;
+        List<int[]> ranges = new ArrayList<>(threads);
+        for (int i = 0; i < size; ) {
+            final int k = rest / threads;
+            threads--;
+            rest -= k;
+            ranges.add(new int[]{i, i + k});
+            i += k;
         }
+        return run(range -> function.apply(range[0], range[1]), ranges);
     }
 
     private <T> T repeat(int threads, List<T> values, Function<Stream<T>, T> function) throws InterruptedException {
@@ -78,11 +156,38 @@ public class IterativeParallelism implements AdvancedIP {
     }
 
     public IterativeParallelism() {
-        parallelMapper = null;
+        this(SHARED_EXECUTOR);
+    }
+
+    /**
+     * Creates instance that runs chunks as tasks of given executor.
+     * Pass {@code Executors.newVirtualThreadPerTaskExecutor()} on a JDK with virtual threads.
+     *
+     * @param executor executor to run chunks on.
+     */
+    public IterativeParallelism(final ExecutorService executor) {
+        this(null, executor, null);
     }
 
     public IterativeParallelism(final ParallelMapper parallelMapper) {
+        this(parallelMapper, null, null);
+    }
+
+    private IterativeParallelism(final ParallelMapper parallelMapper, final ExecutorService executor, final ForkJoinPool forkJoinPool) {
         this.parallelMapper = parallelMapper;
+        this.executor = executor;
+        this.forkJoinPool = forkJoinPool;
+    }
+
+    /**
+     * Creates instance that splits values recursively on given pool instead of cutting them
+     * into {@code threads} equal chunks up front, so idle workers steal the halves of slow chunks.
+     *
+     * @param forkJoinPool pool to run on.
+     * @return instance using fork-join decomposition.
+     */
+    public static IterativeParallelism withForkJoinPool(final ForkJoinPool forkJoinPool) {
+        return new IterativeParallelism(null, null, forkJoinPool);
     }
 
     /**
@@ -120,6 +225,7 @@ public class IterativeParallelism implements AdvancedIP {
 
     /**
      * Returns whether all values satisfies predicate.
+     * Every chunk stops scanning as soon as any chunk finds a counterexample.
      *
      * @param threads   number or concurrent threads.
      * @param values    values to test.
@@ -129,7 +235,15 @@ public class IterativeParallelism implements AdvancedIP {
      */
     @Override
     public <T> boolean all(int threads, List<? extends T> values, Predicate<? super T> predicate) throws InterruptedException {
-        return parallel(threads, values, (stream -> stream.allMatch(predicate))).stream().reduce(true, Boolean::logicalAnd);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        parallel(threads, values, (stream -> {
+            final boolean matched = stream.allMatch(value -> !failed.get() && predicate.test(value));
+            if (!matched) {
+                failed.set(true);
+            }
+            return matched;
+        }));
+        return !failed.get();
     }
 
     /**
@@ -156,7 +270,53 @@ public class IterativeParallelism implements AdvancedIP {
      */
     @Override
     public String join(int threads, List<?> values) throws InterruptedException {
-        return String.join("", parallel(threads, values, (stream -> stream.map(Object::toString).collect(Collectors.joining()))));
+        final List<Part> parts = getParts(threads, values);
+        long length = 0;
+        for (Part part : parts) {
+            length += part.length;
+        }
+        final StringBuilder sb = new StringBuilder(Math.toIntExact(length));
+        for (Part part : parts) {
+            for (String string : part.strings) {
+                sb.append(string);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Join values to given {@link Appendable} without building the whole string.
+     *
+     * @param threads    number of concurrent threads.
+     * @param values     values to join.
+     * @param appendable destination of {@link #toString()} of each value.
+     * @throws InterruptedException if executing thread was interrupted.
+     * @throws IOException          if {@code appendable} could not be written.
+     */
+    public void join(int threads, List<?> values, Appendable appendable) throws InterruptedException, IOException {
+        for (Part part : getParts(threads, values)) {
+            for (String string : part.strings) {
+                appendable.append(string);
+            }
+        }
+    }
+
+    private static class Part {
+        private final String[] strings;
+        private final long length;
+
+        public Part(String[] strings) {
+            this.strings = strings;
+            long length = 0;
+            for (String string : strings) {
+                length += string.length();
+            }
+            this.length = length;
+        }
+    }
+
+    private List<Part> getParts(int threads, List<?> values) throws InterruptedException {
+        return parallel(threads, values, (stream -> new Part(stream.map(Object::toString).toArray(String[]::new))));
     }
 
     private <T, U> List<U> getList(int threads, List<T> values, Function<Stream<T>, List<U>> function) throws InterruptedException {
@@ -224,4 +384,184 @@ public class IterativeParallelism implements AdvancedIP {
     public <T, R> R mapReduce(int threads, List<T> values, Function<T, R> lift, Monoid<R> monoid) throws InterruptedException {
         return reduce(threads, map(threads, values, lift), monoid);
     }
+
+    private static void checkLength(int length) {
+        if (length == 0) {
+            throw new NoSuchElementException("Empty array of values");
+        }
+    }
+
+    /**
+     * Maps and reduces int values without boxing them.
+     *
+     * @param threads  number of concurrent threads.
+     * @param values   values to reduce.
+     * @param lift     mapping function.
+     * @param identity identity of {@code operator}.
+     * @param operator associative reduce operator.
+     * @return values reduced by {@code operator} or {@code identity} if not values specified.
+     * @throws InterruptedException if executing thread was interrupted.
+     */
+    public int mapReduce(int threads, int[] values, IntUnaryOperator lift, int identity, IntBinaryOperator operator) throws InterruptedException {
+        return parallelRanges(threads, values.length, (from, to) -> Arrays.stream(values, from, to).map(lift).reduce(identity, operator))
+                .stream().mapToInt(Integer::intValue).reduce(identity, operator);
+    }
+
+    /**
+     * Reduces int values without boxing them.
+     *
+     * @param threads  number of concurrent threads.
+     * @param values   values to reduce.
+     * @param identity identity of {@code operator}.
+     * @param operator associative reduce operator.
+     * @return values reduced by {@code operator} or {@code identity} if not values specified.
+     * @throws InterruptedException if executing thread was interrupted.
+     */
+    public int reduce(int threads, int[] values, int identity, IntBinaryOperator operator) throws InterruptedException {
+        return mapReduce(threads, values, IntUnaryOperator.identity(), identity, operator);
+    }
+
+    /**
+     * Returns maximum int value.
+     *
+     * @param threads number or concurrent threads.
+     * @param values  values to get maximum of.
+     * @return maximum of given values
+     * @throws InterruptedException   if executing thread was interrupted.
+     * @throws NoSuchElementException if not values are given.
+     */
+    public int maximum(int threads, int[] values) throws InterruptedException {
+        checkLength(values.length);
+        return reduce(threads, values, Integer.MIN_VALUE, Math::max);
+    }
+
+    /**
+     * Returns minimum int value.
+     *
+     * @param threads number or concurrent threads.
+     * @param values  values to get minimum of.
+     * @return minimum of given values
+     * @throws InterruptedException   if executing thread was interrupted.
+     * @throws NoSuchElementException if not values are given.
+     */
+    public int minimum(int threads, int[] values) throws InterruptedException {
+        checkLength(values.length);
+        return reduce(threads, values, Integer.MAX_VALUE, Math::min);
+    }
+
+    /**
+     * Maps and reduces long values without boxing them.
+     *
+     * @param threads  number of concurrent threads.
+     * @param values   values to reduce.
+     * @param lift     mapping function.
+     * @param identity identity of {@code operator}.
+     * @param operator associative reduce operator.
+     * @return values reduced by {@code operator} or {@code identity} if not values specified.
+     * @throws InterruptedException if executing thread was interrupted.
+     */
+    public long mapReduce(int threads, long[] values, LongUnaryOperator lift, long identity, LongBinaryOperator operator) throws InterruptedException {
+        return parallelRanges(threads, values.length, (from, to) -> Arrays.stream(values, from, to).map(lift).reduce(identity, operator))
+                .stream().mapToLong(Long::longValue).reduce(identity, operator);
+    }
+
+    /**
+     * Reduces long values without boxing them.
+     *
+     * @param threads  number of concurrent threads.
+     * @param values   values to reduce.
+     * @param identity identity of {@code operator}.
+     * @param operator associative reduce operator.
+     * @return values reduced by {@code operator} or {@code identity} if not values specified.
+     * @throws InterruptedException if executing thread was interrupted.
+     */
+    public long reduce(int threads, long[] values, long identity, LongBinaryOperator operator) throws InterruptedException {
+        return mapReduce(threads, values, LongUnaryOperator.identity(), identity, operator);
+    }
+
+    /**
+     * Returns maximum long value.
+     *
+     * @param threads number or concurrent threads.
+     * @param values  values to get maximum of.
+     * @return maximum of given values
+     * @throws InterruptedException   if executing thread was interrupted.
+     * @throws NoSuchElementException if not values are given.
+     */
+    public long maximum(int threads, long[] values) throws InterruptedException {
+        checkLength(values.length);
+        return reduce(threads, values, Long.MIN_VALUE, Math::max);
+    }
+
+    /**
+     * Returns minimum long value.
+     *
+     * @param threads number or concurrent threads.
+     * @param values  values to get minimum of.
+     * @return minimum of given values
+     * @throws InterruptedException   if executing thread was interrupted.
+     * @throws NoSuchElementException if not values are given.
+     */
+    public long minimum(int threads, long[] values) throws InterruptedException {
+        checkLength(values.length);
+        return reduce(threads, values, Long.MAX_VALUE, Math::min);
+    }
+
+    /**
+     * Maps and reduces double values without boxing them.
+     *
+     * @param threads  number of concurrent threads.
+     * @param values   values to reduce.
+     * @param lift     mapping function.
+     * @param identity identity of {@code operator}.
+     * @param operator associative reduce operator.
+     * @return values reduced by {@code operator} or {@code identity} if not values specified.
+     * @throws InterruptedException if executing thread was interrupted.
+     */
+    public double mapReduce(int threads, double[] values, DoubleUnaryOperator lift, double identity, DoubleBinaryOperator operator) throws InterruptedException {
+        return parallelRanges(threads, values.length, (from, to) -> Arrays.stream(values, from, to).map(lift).reduce(identity, operator))
+                .stream().mapToDouble(Double::doubleValue).reduce(identity, operator);
+    }
+
+    /**
+     * Reduces double values without boxing them.
+     *
+     * @param threads  number of concurrent threads.
+     * @param values   values to reduce.
+     * @param identity identity of {@code operator}.
+     * @param operator associative reduce operator.
+     * @return values reduced by {@code operator} or {@code identity} if not values specified.
+     * @throws InterruptedException if executing thread was interrupted.
+     */
+    public double reduce(int threads, double[] values, double identity, DoubleBinaryOperator operator) throws InterruptedException {
+        return mapReduce(threads, values, DoubleUnaryOperator.identity(), identity, operator);
+    }
+
+    /**
+     * Returns maximum double value.
+     *
+     * @param threads number or concurrent threads.
+     * @param values  values to get maximum of.
+     * @return maximum of given values
+     * @throws InterruptedException   if executing thread was interrupted.
+     * @throws NoSuchElementException if not values are given.
+     */
+    public double maximum(int threads, double[] values) throws InterruptedException {
+        checkLength(values.length);
+        return reduce(threads, values, Double.NEGATIVE_INFINITY, Math::max);
+    }
+
+    /**
+     * Returns minimum double value.
+     *
+     * @param threads number or concurrent threads.
+     * @param values  values to get minimum of.
+     * @return minimum of given values
+     * @throws InterruptedException   if executing thread was interrupted.
+     * @throws NoSuchElementException if not values are given.
+     */
+    public double minimum(int threads, double[] values) throws InterruptedException {
+        checkLength(values.length);
+        return reduce(threads, values, Double.POSITIVE_INFINITY, Math::min);
+    }
 }
@@ -0,0 +1,41 @@
+package ru.ifmo.rain.akimov.concurrent;
+
+/**
+ * Receives events of {@link ParallelMapperImpl}.
+ * Methods are called from worker and submitting threads, so they have to be thread-safe and cheap.
+ */
+public interface MapperListener {
+    /**
+     * Called when tasks of one call are queued.
+     *
+     * @param tasks number of queued tasks.
+     */
+    default void tasksSubmitted(int tasks) {
+    }
+
+    /**
+     * Called when worker takes a task.
+     *
+     * @param worker    index of worker.
+     * @param waitNanos time the task spent in the queue.
+     */
+    default void taskStarted(int worker, long waitNanos) {
+    }
+
+    /**
+     * Called when worker finishes a task.
+     *
+     * @param worker   index of worker.
+     * @param runNanos time the task was running.
+     */
+    default void taskFinished(int worker, long runNanos) {
+    }
+
+    /**
+     * Called when mapper function throws.
+     *
+     * @param e thrown exception.
+     */
+    default void exceptionCaught(RuntimeException e) {
+    }
+}
@@ -0,0 +1,175 @@
+package ru.ifmo.rain.akimov.concurrent;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of {@link ParallelMapperImpl} kept with lock-free counters updated once per task,
+ * so it can stay enabled under load.
+ * Times are collected to histograms that split every power of two into 32 linear buckets,
+ * percentiles are upper bounds of the buckets and overestimate by at most about 3%.
+ */
+public class MapperStats implements MapperListener, MapperStatsMBean {
+    private final LongAdder submitted;
+    private final LongAdder started;
+    private final LongAdder completed;
+    private final LongAdder exceptions;
+    private final Histogram waitTime;
+    private final Histogram runTime;
+    private final LongAdder[] busy;
+    private final long startTime;
+
+    private static class Histogram {
+        private static final int SUB_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+        private final AtomicLongArray buckets;
+        private final LongAccumulator max;
+
+        public Histogram() {
+            buckets = new AtomicLongArray((Long.SIZE - SUB_BITS) * SUB_BUCKETS);
+            max = new LongAccumulator(Math::max, 0);
+        }
+
+        private static int index(final long value) {
+            final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+            if (exponent < SUB_BITS) {
+                return (int) value;
+            }
+            final int shift = exponent - SUB_BITS;
+            return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+        }
+
+        private static long upperBound(final int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            final int shift = index / SUB_BUCKETS - 1;
+            return ((long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift) + (1L << shift) - 1;
+        }
+
+        public void record(final long value) {
+            final long positive = Math.max(value, 0);
+            buckets.incrementAndGet(index(positive));
+            max.accumulate(positive);
+        }
+
+        public long getPercentile(final double percentile) {
+            long count = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                count += buckets.get(i);
+            }
+            final long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen != 0) {
+                    return Math.min(upperBound(i), getMax());
+                }
+            }
+            return 0;
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+    }
+
+    public MapperStats(final int workers) {
+        submitted = new LongAdder();
+        started = new LongAdder();
+        completed = new LongAdder();
+        exceptions = new LongAdder();
+        waitTime = new Histogram();
+        runTime = new Histogram();
+        busy = new LongAdder[workers];
+        for (int i = 0; i < workers; i++) {
+            busy[i] = new LongAdder();
+        }
+        startTime = System.nanoTime();
+    }
+
+    @Override
+    public void tasksSubmitted(final int tasks) {
+        submitted.add(tasks);
+    }
+
+    @Override
+    public void taskStarted(final int worker, final long waitNanos) {
+        started.increment();
+        waitTime.record(waitNanos);
+    }
+
+    @Override
+    public void taskFinished(final int worker, final long runNanos) {
+        completed.increment();
+        runTime.record(runNanos);
+        busy[worker].add(runNanos);
+    }
+
+    @Override
+    public void exceptionCaught(final RuntimeException e) {
+        exceptions.increment();
+    }
+
+    @Override
+    public long getQueueLength() {
+        return Math.max(0, submitted.sum() - started.sum());
+    }
+
+    @Override
+    public long getTasksSubmitted() {
+        return submitted.sum();
+    }
+
+    @Override
+    public long getTasksCompleted() {
+        return completed.sum();
+    }
+
+    @Override
+    public long getExceptions() {
+        return exceptions.sum();
+    }
+
+    @Override
+    public long getWaitTime50() {
+        return waitTime.getPercentile(50);
+    }
+
+    @Override
+    public long getWaitTime99() {
+        return waitTime.getPercentile(99);
+    }
+
+    @Override
+    public long getWaitTimeMax() {
+        return waitTime.getMax();
+    }
+
+    @Override
+    public long getRunTime50() {
+        return runTime.getPercentile(50);
+    }
+
+    @Override
+    public long getRunTime99() {
+        return runTime.getPercentile(99);
+    }
+
+    @Override
+    public long getRunTimeMax() {
+        return runTime.getMax();
+    }
+
+    @Override
+    public double[] getBusyRatios() {
+        final long elapsed = Math.max(1, System.nanoTime() - startTime);
+        final double[] ratios = new double[busy.length];
+        for (int i = 0; i < busy.length; i++) {
+            ratios[i] = (double) busy[i].sum() / elapsed;
+        }
+        return ratios;
+    }
+}
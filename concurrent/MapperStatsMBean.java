@@ -0,0 +1,28 @@
+package ru.ifmo.rain.akimov.concurrent;
+
+/**
+ * JMX view of {@link MapperStats}. Times are in nanoseconds.
+ */
+public interface MapperStatsMBean {
+    long getQueueLength();
+
+    long getTasksSubmitted();
+
+    long getTasksCompleted();
+
+    long getExceptions();
+
+    long getWaitTime50();
+
+    long getWaitTime99();
+
+    long getWaitTimeMax();
+
+    long getRunTime50();
+
+    long getRunTime99();
+
+    long getRunTimeMax();
+
+    double[] getBusyRatios();
+}
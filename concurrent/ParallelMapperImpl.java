@@ -2,33 +2,51 @@ package ru.ifmo.rain.akimov.concurrent;
 
 import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
 
-import java.util.ArrayDeque;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
-import java.util.Queue;
+import java.util.RandomAccess;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 public class ParallelMapperImpl implements ParallelMapper {
     private final List<Thread> runningThreads;
     private final Scheduler scheduler;
+    private final int chunkSize;
+    private final MapperStats stats;
+    private final Listeners listeners;
+    private ObjectName objectName;
+
+    private static final int CHUNKS_PER_THREAD = 4;
 
     private static class Result<T> {
-        private int remaining;
+        private final AtomicInteger remaining;
+        private final Thread owner;
         private RuntimeException finalException;
-        private final List<T> ans;
+        private final T[] ans;
+        private final MapperListener listener;
 
-        public Result(int size) {
-            ans = new ArrayList<>(Collections.nCopies(size, null));
-            remaining = size;
+        @SuppressWarnings({"unchecked"})
+        public Result(int size, int chunks, MapperListener listener) {
+            this.listener = listener;
+            ans = (T[]) new Object[size];
+            remaining = new AtomicInteger(chunks);
+            owner = Thread.currentThread();
             finalException = null;
         }
 
-        private synchronized void setResult(final int index, final T result) {
-            ans.set(index, result);
-        }
-
         private synchronized void setException(RuntimeException e) {
+            listener.exceptionCaught(e);
             if (finalException == null) {
                 finalException = e;
             } else {
@@ -36,59 +54,161 @@ public class ParallelMapperImpl implements ParallelMapper {
             }
         }
 
-        public <R> void set(final int index, final R arg, final Function<? super R, ? extends T> f) {
-            try {
-                setResult(index, f.apply(arg));
-            } catch (RuntimeException e) {
-                setException(e);
+        public <R> void set(final int from, final int to, final List<? extends R> args, final Function<? super R, ? extends T> f) {
+            for (int i = from; i < to; i++) {
+                try {
+                    ans[i] = f.apply(args.get(i));
+                } catch (RuntimeException e) {
+                    setException(e);
+                }
+            }
+            if (remaining.decrementAndGet() == 0) {
+                LockSupport.unpark(owner);
+            }
+        }
+
+        public List<T> getAns() throws InterruptedException, RuntimeException {
+            while (remaining.get() != 0) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
             }
             synchronized (this) {
-                remaining--;
-                if (remaining == 0) {
-                    notify();
+                if (finalException != null) {
+                    throw finalException;
                 }
             }
+            return Arrays.asList(ans);
         }
+    }
 
-        public synchronized List<T> getAns() throws InterruptedException, RuntimeException {
-            while (remaining != 0) {
-                wait();
-            }
-            if (finalException != null) {
-                throw finalException;
+    @FunctionalInterface
+    private interface RangeTask {
+        void run(int from, int to);
+    }
+
+    /**
+     * Forwards events to registered listeners. A throwing listener must not break a worker
+     * or lose a result, so its exceptions are dropped.
+     */
+    private static class Listeners implements MapperListener {
+        private final List<MapperListener> listeners = new CopyOnWriteArrayList<>();
+
+        private void notify(final Consumer<MapperListener> event) {
+            for (MapperListener listener : listeners) {
+                try {
+                    event.accept(listener);
+                } catch (RuntimeException ignored) {
+                }
             }
-            return ans;
+        }
+
+        @Override
+        public void tasksSubmitted(final int tasks) {
+            notify(listener -> listener.tasksSubmitted(tasks));
+        }
+
+        @Override
+        public void taskStarted(final int worker, final long waitNanos) {
+            notify(listener -> listener.taskStarted(worker, waitNanos));
+        }
+
+        @Override
+        public void taskFinished(final int worker, final long runNanos) {
+            notify(listener -> listener.taskFinished(worker, runNanos));
+        }
+
+        @Override
+        public void exceptionCaught(final RuntimeException e) {
+            notify(listener -> listener.exceptionCaught(e));
+        }
+    }
+
+    private static class Task {
+        private final Runnable runnable;
+        private final long submitted;
+
+        public Task(final Runnable runnable, final long submitted) {
+            this.runnable = runnable;
+            this.submitted = submitted;
         }
     }
 
     private static class Scheduler {
-        private final Queue<Runnable> runs;
+        private final List<Deque<Task>> runs;
+        private final List<Thread> workers;
+        private final MapperListener listener;
+        private final AtomicInteger next;
+        private final AtomicInteger idle;
 
-        public Scheduler() {
-            runs = new ArrayDeque<>();
+        public Scheduler(final List<Thread> workers, final MapperListener listener) {
+            this.workers = workers;
+            this.listener = listener;
+            runs = new ArrayList<>(workers.size());
+            for (int i = 0; i < workers.size(); i++) {
+                runs.add(new ConcurrentLinkedDeque<>());
+            }
+            next = new AtomicInteger();
+            idle = new AtomicInteger();
         }
 
-        public synchronized Runnable getTask() throws InterruptedException {
-            while (runs.isEmpty()) {
-                wait();
+        private Task findTask(final int index) {
+            Task task = runs.get(index).pollFirst();
+            for (int i = 1; task == null && i < runs.size(); i++) {
+                task = runs.get((index + i) % runs.size()).pollLast();
             }
-            return runs.poll();
+            return task;
         }
 
-        public synchronized <T, R> void addTasks(List<T> args, Result<R> result, Function<? super T, ? extends R> f) {
-            for (int i = 0; i < args.size(); i++) {
-                final int index = i;
-                final T arg = args.get(i);
-                runs.add(() -> result.set(index, arg, f));
+        public Task getTask(final int index) throws InterruptedException {
+            while (true) {
+                Task task = findTask(index);
+                if (task != null) {
+                    return task;
+                }
+                idle.incrementAndGet();
+                try {
+                    task = findTask(index);
+                    if (task != null) {
+                        return task;
+                    }
+                    LockSupport.park(this);
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                } finally {
+                    idle.decrementAndGet();
+                }
+            }
+        }
+
+        public void addTasks(final int size, final int chunkSize, final RangeTask task) {
+            final int start = next.getAndAdd(runs.size());
+            final long submitted = System.nanoTime();
+            listener.tasksSubmitted((size + chunkSize - 1) / chunkSize);
+            for (int i = 0, from = 0; from < size; i++, from += chunkSize) {
+                final int left = from;
+                final int right = Math.min(from + chunkSize, size);
+                runs.get(Math.floorMod(start + i, runs.size())).addLast(new Task(() -> task.run(left, right), submitted));
+            }
+            if (idle.get() != 0) {
+                workers.forEach(LockSupport::unpark);
             }
-            notifyAll();
         }
     }
 
-    private void work() {
+    private void work(final int index) {
         try {
             while (!Thread.interrupted()) {
-                scheduler.getTask().run();
+                final Task task = scheduler.getTask(index);
+                final long start = System.nanoTime();
+                listeners.taskStarted(index, start - task.submitted);
+                try {
+                    task.runnable.run();
+                } finally {
+                    listeners.taskFinished(index, System.nanoTime() - start);
+                }
             }
         } catch (InterruptedException ignored) {
         } finally {
@@ -97,23 +217,144 @@ public class ParallelMapperImpl implements ParallelMapper {
     }
 
     public ParallelMapperImpl(final int threads) {
-        scheduler = new Scheduler();
+        this(threads, 0);
+    }
+
+    /**
+     * Creates mapper that runs each {@link #map} call as chunks of consecutive elements.
+     *
+     * @param threads   number of worker threads, positive.
+     * @param chunkSize number of elements processed by one task, or {@code 0} to split every call
+     *                  into a few chunks per worker.
+     */
+    public ParallelMapperImpl(final int threads, final int chunkSize) {
+        this(threads, chunkSize, Thread::new);
+    }
+
+    /**
+     * Creates mapper with workers made by given factory.
+     * On a JDK with virtual threads pass {@code Thread.ofVirtual().factory()} to get cheap workers
+     * for blocking mapper functions.
+     *
+     * @param threads       number of worker threads, positive.
+     * @param chunkSize     number of elements processed by one task, or {@code 0} to choose it automatically.
+     * @param threadFactory factory of worker threads.
+     */
+    public ParallelMapperImpl(final int threads, final int chunkSize, final ThreadFactory threadFactory) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Number of threads has to be positive");
+        }
+        if (chunkSize < 0) {
+            throw new IllegalArgumentException("Chunk size has to be non-negative");
+        }
+        this.chunkSize = chunkSize;
+        stats = new MapperStats(threads);
+        listeners = new Listeners();
+        listeners.listeners.add(stats);
         runningThreads = new ArrayList<>();
         for (int i = 0; i < threads; i++) {
-            runningThreads.add(new Thread(this::work));
-            runningThreads.get(i).start();
+            final int index = i;
+            runningThreads.add(threadFactory.newThread(() -> work(index)));
         }
+        scheduler = new Scheduler(runningThreads, listeners);
+        runningThreads.forEach(Thread::start);
+    }
+
+    private int getChunkSize(final int size) {
+        if (chunkSize != 0) {
+            return chunkSize;
+        }
+        final int chunks = Math.max(1, runningThreads.size() * CHUNKS_PER_THREAD);
+        return Math.max(1, (size + chunks - 1) / chunks);
     }
 
     @Override
     public <T, R> List<R> map(Function<? super T, ? extends R> f, List<? extends T> args) throws InterruptedException {
-        Result<R> result = new Result<>(args.size());
-        scheduler.addTasks(args, result, f);
+        final List<? extends T> optArgs = (args instanceof RandomAccess) ? args : new ArrayList<>(args);
+        final int size = getChunkSize(optArgs.size());
+        Result<R> result = new Result<>(optArgs.size(), (optArgs.size() + size - 1) / size, listeners);
+        scheduler.addTasks(optArgs.size(), size, (from, to) -> result.set(from, to, optArgs, f));
         return result.getAns();
     }
 
+    /**
+     * Maps values without waiting for the whole list.
+     * Each future is completed as soon as its own element is mapped, so consumers can
+     * start on early results while the slow ones are still running.
+     *
+     * @param f    mapper function.
+     * @param args values to map.
+     * @return futures of mapped values in the order of {@code args}.
+     */
+    public <T, R> List<CompletableFuture<R>> mapAsync(Function<? super T, ? extends R> f, List<? extends T> args) {
+        final List<? extends T> optArgs = (args instanceof RandomAccess) ? args : new ArrayList<>(args);
+        final List<CompletableFuture<R>> futures = new ArrayList<>(optArgs.size());
+        for (int i = 0; i < optArgs.size(); i++) {
+            futures.add(new CompletableFuture<>());
+        }
+        scheduler.addTasks(optArgs.size(), getChunkSize(optArgs.size()), (from, to) -> {
+            for (int i = from; i < to; i++) {
+                try {
+                    futures.get(i).complete(f.apply(optArgs.get(i)));
+                } catch (RuntimeException e) {
+                    listeners.exceptionCaught(e);
+                    futures.get(i).completeExceptionally(e);
+                }
+            }
+        });
+        return futures;
+    }
+
+    /**
+     * Returns statistics collected since the mapper was created.
+     *
+     * @return statistics of this mapper.
+     */
+    public MapperStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Adds listener of mapper events.
+     *
+     * @param listener listener to add.
+     */
+    public void addListener(final MapperListener listener) {
+        listeners.listeners.add(listener);
+    }
+
+    /**
+     * Removes listener of mapper events.
+     *
+     * @param listener listener to remove.
+     */
+    public void removeListener(final MapperListener listener) {
+        listeners.listeners.remove(listener);
+    }
+
+    /**
+     * Registers {@link #getStats() statistics} in the platform MBean server.
+     * The bean is unregistered on {@link #close()}.
+     *
+     * @param name name of this mapper in the bean name.
+     * @throws JMException if the bean could not be registered.
+     */
+    public synchronized void registerMBean(final String name) throws JMException {
+        objectName = new ObjectName("ru.ifmo.rain.akimov.concurrent:type=ParallelMapper,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(stats, objectName);
+    }
+
     @Override
     public void close() {
+        synchronized (this) {
+            if (objectName != null) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+                } catch (JMException ignored) {
+                }
+                objectName = null;
+            }
+        }
         runningThreads.forEach(Thread::interrupt);
         for (Thread th : runningThreads) {
             try {
@@ -0,0 +1,44 @@
+package ru.ifmo.rain.akimov.crawler;
+
+import info.kgeorgiy.java.advanced.crawler.Document;
+import info.kgeorgiy.java.advanced.crawler.Downloader;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Downloader that does not block the calling thread.
+ */
+@FunctionalInterface
+public interface AsyncDownloader {
+    /**
+     * Starts downloading document by its url.
+     *
+     * @param url url to download.
+     * @return future completed with downloaded document, or exceptionally with {@link IOException}.
+     */
+    CompletableFuture<Document> download(String url);
+
+    /**
+     * Adapts blocking downloader. Each download occupies a thread of {@code executor} until it finishes,
+     * so {@code executor} decides how many downloads may be in flight.
+     *
+     * @param downloader blocking downloader.
+     * @param executor   executor to run blocking downloads on.
+     * @return asynchronous view of {@code downloader}.
+     */
+    static AsyncDownloader of(final Downloader downloader, final Executor executor) {
+        return url -> {
+            final CompletableFuture<Document> future = new CompletableFuture<>();
+            executor.execute(() -> {
+                try {
+                    future.complete(downloader.download(url));
+                } catch (final IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+            return future;
+        };
+    }
+}
@@ -0,0 +1,78 @@
+package ru.ifmo.rain.akimov.crawler;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter over url fingerprints with double hashing, whose cells are unsigned bytes instead of bits.
+ * Adding url raises its cells to its depth, and url is known with the least depth among its cells.
+ * Cells are raised with CAS, eight to a word; adds of the same url are serialized by a lock stripe,
+ * so concurrent adds of one url do not both report it as new.
+ */
+class BloomFilter implements VisitedSet {
+    private static final int STRIPES = 64;
+    private static final int CELLS_PER_WORD = Long.SIZE / Byte.SIZE;
+    private static final int MAX_DEPTH = 0xFF;
+
+    private final AtomicLongArray cells;
+    private final long size;
+    private final int hashes;
+    private final Object[] locks;
+
+    public BloomFilter(final long expectedSize, final double falsePositiveRate) {
+        if (expectedSize <= 0 || !(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("Invalid Bloom filter parameters");
+        }
+        final double ln2 = Math.log(2);
+        final long optimal = (long) Math.ceil(-expectedSize * Math.log(falsePositiveRate) / (ln2 * ln2));
+        final int words = (int) Math.min((optimal + CELLS_PER_WORD - 1) / CELLS_PER_WORD, Integer.MAX_VALUE - 8);
+        cells = new AtomicLongArray(words);
+        size = (long) words * CELLS_PER_WORD;
+        hashes = Math.max(1, (int) Math.round((double) size / expectedSize * ln2));
+        locks = new Object[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    private int get(final long cell) {
+        return (int) (cells.get((int) (cell / CELLS_PER_WORD)) >>> shift(cell)) & MAX_DEPTH;
+    }
+
+    private void raise(final long cell, final int depth) {
+        final int word = (int) (cell / CELLS_PER_WORD);
+        final int shift = shift(cell);
+        while (true) {
+            final long value = cells.get(word);
+            if ((int) (value >>> shift & MAX_DEPTH) >= depth) {
+                return;
+            }
+            if (cells.compareAndSet(word, value, value & ~((long) MAX_DEPTH << shift) | (long) depth << shift)) {
+                return;
+            }
+        }
+    }
+
+    private static int shift(final long cell) {
+        return (int) (cell % CELLS_PER_WORD) * Byte.SIZE;
+    }
+
+    @Override
+    public boolean add(final String url, final int depth) {
+        final int d = Math.min(depth, MAX_DEPTH);
+        final long h1 = VisitedSet.fingerprint(url);
+        final long h2 = Long.rotateLeft(h1, 32) * 0x9e3779b97f4a7c15L | 1;
+        synchronized (locks[(int) (h1 >>> 58)]) {
+            int known = MAX_DEPTH;
+            for (int i = 0; i < hashes && known >= d; i++) {
+                known = Math.min(known, get(Long.remainderUnsigned(h1 + i * h2, size)));
+            }
+            if (known >= d) {
+                return false;
+            }
+            for (int i = 0; i < hashes; i++) {
+                raise(Long.remainderUnsigned(h1 + i * h2, size), d);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package ru.ifmo.rain.akimov.crawler;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * On-disk crawl state: a snapshot file and an append-only log of changes made after it.
+ * Both are sequences of the same idempotent records, so state is restored by replaying the snapshot and then the log.
+ * The log is buffered, but written out after every finished page, so a crash loses at most records about pages
+ * still in progress; they are simply crawled again.
+ */
+class CrawlStore implements Closeable {
+    private static final String SNAPSHOT = "snapshot";
+    private static final String LOG = "log";
+    private static final byte DISCOVERED = 'D';
+    private static final byte DOWNLOADED = 'S';
+    private static final byte FAILED = 'E';
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long WINDOW = 1 << 30;
+    private static final long MIN_LOG_RECORDS = 1 << 16;
+
+    /**
+     * Receiver of stored records.
+     */
+    interface Visitor {
+        void discovered(String url, int depth);
+
+        /**
+         * @param links extracted links, {@code null} if they were not extracted.
+         */
+        void downloaded(String url, List<String> links);
+
+        void failed(String url, String message);
+    }
+
+    private static class Writer implements Visitor {
+        private final DataOutputStream out;
+        private long records;
+        private IOException failure;
+
+        public Writer(final DataOutputStream out) {
+            this.out = out;
+        }
+
+        private void writeString(final String value) throws IOException {
+            if (value == null) {
+                out.writeInt(-1);
+            } else {
+                final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        private interface Record {
+            void write() throws IOException;
+        }
+
+        private void write(final Record record) {
+            if (failure == null) {
+                try {
+                    record.write();
+                    records++;
+                } catch (final IOException e) {
+                    failure = e;
+                }
+            }
+        }
+
+        @Override
+        public void discovered(final String url, final int depth) {
+            write(() -> {
+                out.writeByte(DISCOVERED);
+                writeString(url);
+                out.writeInt(depth);
+            });
+        }
+
+        @Override
+        public void downloaded(final String url, final List<String> links) {
+            write(() -> {
+                out.writeByte(DOWNLOADED);
+                writeString(url);
+                if (links == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(links.size());
+                    for (final String link : links) {
+                        writeString(link);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void failed(final String url, final String message) {
+            write(() -> {
+                out.writeByte(FAILED);
+                writeString(url);
+                writeString(message);
+            });
+        }
+
+        /**
+         * Writes buffered records out, remembering failure like {@link #write}.
+         */
+        public void push() {
+            if (failure == null) {
+                try {
+                    out.flush();
+                } catch (final IOException e) {
+                    failure = e;
+                }
+            }
+        }
+
+        public void flush() throws IOException {
+            if (failure == null) {
+                out.flush();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private final Path directory;
+    private final FileChannel channel;
+    private Writer log;
+    private long snapshotRecords;
+    private IOException failure;
+
+    private CrawlStore(final Path directory, final FileChannel channel) {
+        this.directory = directory;
+        this.channel = channel;
+        log = newLog();
+    }
+
+    /**
+     * Opens store in {@code directory}, creating it if necessary, and replays its state into {@code visitor}.
+     *
+     * @param directory directory of the store.
+     * @param visitor   receiver of stored state.
+     * @return opened store.
+     * @throws IOException if the store could not be read or its snapshot is corrupted.
+     */
+    static CrawlStore open(final Path directory, final Visitor visitor) throws IOException {
+        Files.createDirectories(directory);
+        final Path snapshot = directory.resolve(SNAPSHOT);
+        if (Files.exists(snapshot) && replay(snapshot, visitor) != Files.size(snapshot)) {
+            throw new IOException("Corrupted snapshot " + snapshot);
+        }
+        final Path log = directory.resolve(LOG);
+        final long valid = Files.exists(log) ? replay(log, visitor) : 0;
+        final FileChannel channel = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            channel.truncate(valid);
+            channel.position(valid);
+        } catch (final IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new CrawlStore(directory, channel);
+    }
+
+    private Writer newLog() {
+        return new Writer(new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE)));
+    }
+
+    /**
+     * Reads records from memory-mapped windows of {@code file}.
+     *
+     * @return length of the valid prefix of {@code file}.
+     */
+    private static long replay(final Path file, final Visitor visitor) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                final long length = Math.min(size - position, WINDOW);
+                final boolean last = position + length == size;
+                final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int valid = 0;
+                try {
+                    while (buffer.hasRemaining()) {
+                        readRecord(buffer, visitor);
+                        valid = buffer.position();
+                    }
+                } catch (final BufferUnderflowException | IllegalArgumentException ignored) {
+                }
+                position += valid;
+                if (valid < length && (valid == 0 || last)) {
+                    break;
+                }
+            }
+            return position;
+        }
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0) {
+            throw new IllegalArgumentException("Invalid string length " + length);
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void readRecord(final ByteBuffer buffer, final Visitor visitor) {
+        final byte tag = buffer.get();
+        final String url = readString(buffer);
+        switch (tag) {
+            case DISCOVERED:
+                visitor.discovered(url, buffer.getInt());
+                break;
+            case DOWNLOADED:
+                final int size = buffer.getInt();
+                if (size < -1) {
+                    throw new IllegalArgumentException("Invalid number of links " + size);
+                }
+                List<String> links = null;
+                if (size >= 0) {
+                    links = new ArrayList<>(Math.min(size, buffer.remaining() / Integer.BYTES));
+                    for (int i = 0; i < size; i++) {
+                        links.add(readString(buffer));
+                    }
+                }
+                visitor.downloaded(url, links);
+                break;
+            case FAILED:
+                visitor.failed(url, readString(buffer));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown record " + tag);
+        }
+    }
+
+    synchronized void discovered(final String url, final int depth) {
+        log.discovered(url, depth);
+    }
+
+    synchronized void downloaded(final String url, final List<String> links) {
+        log.downloaded(url, links);
+        log.push();
+    }
+
+    synchronized void failed(final String url, final String message) {
+        log.failed(url, message);
+        log.push();
+    }
+
+    /**
+     * Checks whether log has grown large enough to be compacted.
+     */
+    synchronized boolean needsSnapshot() {
+        return failure == null && log.records > Math.max(MIN_LOG_RECORDS, snapshotRecords);
+    }
+
+    /**
+     * Replaces snapshot with state written by {@code dump} and empties the log.
+     * Changes logged while {@code dump} runs may also be part of the snapshot, which is harmless
+     * since records are idempotent.
+     *
+     * @param dump writer of the whole crawl state.
+     */
+    synchronized void snapshot(final Consumer<Visitor> dump) {
+        if (!needsSnapshot()) {
+            return;
+        }
+        try {
+            log.flush();
+            final Path temp = directory.resolve(SNAPSHOT + ".tmp");
+            final Writer snapshot;
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), BUFFER_SIZE))) {
+                snapshot = new Writer(out);
+                dump.accept(snapshot);
+                snapshot.flush();
+            }
+            Files.move(temp, directory.resolve(SNAPSHOT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel.truncate(0);
+            log = newLog();
+            snapshotRecords = snapshot.records;
+        } catch (final IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Flushes log and reports the first write failure, if any.
+     *
+     * @throws IOException if some state could not be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (failure == null) {
+                log.flush();
+            }
+        } catch (final IOException e) {
+            failure = e;
+        } finally {
+            channel.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
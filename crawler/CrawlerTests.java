@@ -0,0 +1,300 @@
+package ru.ifmo.rain.akimov.crawler;
+
+import info.kgeorgiy.java.advanced.crawler.Crawler;
+import info.kgeorgiy.java.advanced.crawler.Document;
+import info.kgeorgiy.java.advanced.crawler.Downloader;
+import info.kgeorgiy.java.advanced.crawler.Result;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CrawlerTests {
+    private final static int PAGES = 3000;
+    private final static int HOSTS = 7;
+    private final static int DEPTH = 7;
+    private final static int SEEDS = 3;
+
+    private static ScheduledExecutorService timer;
+
+    @BeforeAll
+    public static void prepare() {
+        timer = Executors.newScheduledThreadPool(2);
+    }
+
+    @AfterAll
+    public static void cleanup() {
+        timer.shutdownNow();
+    }
+
+    private static String url(final int page) {
+        return "http://host" + page % HOSTS + ".com/" + page;
+    }
+
+    private static int page(final String url) {
+        return Integer.parseInt(url.substring(url.lastIndexOf('/') + 1));
+    }
+
+    /**
+     * Random site: every page links to a few random pages and some pages fail to download.
+     */
+    private static class Site {
+        private final List<List<String>> links = new ArrayList<>();
+        private final Set<Integer> failing = new HashSet<>();
+        private final Random random;
+        private final AtomicInteger downloads = new AtomicInteger();
+
+        public Site(final long seed) {
+            random = new Random(seed);
+            for (int i = 0; i < PAGES; i++) {
+                final List<String> pageLinks = new ArrayList<>();
+                final int count = i == 0 ? 5 : random.nextInt(5);
+                for (int j = 0; j < count; j++) {
+                    pageLinks.add(url(random.nextInt(PAGES)));
+                }
+                links.add(pageLinks);
+                if (i != 0 && random.nextInt(20) == 0) {
+                    failing.add(i);
+                }
+            }
+        }
+
+        private int latency() {
+            synchronized (random) {
+                return random.nextInt(3);
+            }
+        }
+
+        private Document document(final String url) throws IOException {
+            downloads.incrementAndGet();
+            final int page = page(url);
+            if (failing.contains(page)) {
+                throw new IOException("Failed " + url);
+            }
+            return () -> links.get(page);
+        }
+
+        public Downloader blocking() {
+            return url -> {
+                try {
+                    Thread.sleep(latency());
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return document(url);
+            };
+        }
+
+        public AsyncDownloader async() {
+            return url -> {
+                final CompletableFuture<Document> future = new CompletableFuture<>();
+                timer.schedule(() -> {
+                    try {
+                        future.complete(document(url));
+                    } catch (final IOException e) {
+                        future.completeExceptionally(e);
+                    }
+                }, latency(), TimeUnit.MILLISECONDS);
+                return future;
+            };
+        }
+
+        /**
+         * Downloader that fails synchronously: failing pages either throw or get no future.
+         */
+        public AsyncDownloader throwing() {
+            final AsyncDownloader async = async();
+            return url -> {
+                final int page = page(url);
+                if (!failing.contains(page)) {
+                    return async.download(url);
+                }
+                downloads.incrementAndGet();
+                if (page % 2 == 0) {
+                    throw new IllegalStateException("Failed " + url);
+                }
+                return null;
+            };
+        }
+
+        public Downloader blockingThrowing() {
+            final Downloader blocking = blocking();
+            return url -> {
+                if (failing.contains(page(url))) {
+                    downloads.incrementAndGet();
+                    throw new IllegalStateException("Failed " + url);
+                }
+                return blocking.download(url);
+            };
+        }
+
+        /**
+         * Crawls site breadth-first, level by level.
+         */
+        public Result oracle(final int depth) {
+            final List<String> downloaded = new ArrayList<>();
+            final Map<String, IOException> errors = new HashMap<>();
+            final Set<Integer> seen = new HashSet<>(List.of(0));
+            List<Integer> level = List.of(0);
+            for (int left = depth; left > 0; left--) {
+                final List<Integer> next = new ArrayList<>();
+                for (final int page : level) {
+                    if (failing.contains(page)) {
+                        errors.put(url(page), new IOException());
+                        continue;
+                    }
+                    downloaded.add(url(page));
+                    if (left > 1) {
+                        for (final String link : links.get(page)) {
+                            if (seen.add(page(link))) {
+                                next.add(page(link));
+                            }
+                        }
+                    }
+                }
+                level = next;
+            }
+            return new Result(downloaded, errors);
+        }
+    }
+
+    private static void check(final Result expected, final Result actual) {
+        assertEquals(new HashSet<>(expected.getDownloaded()), new HashSet<>(actual.getDownloaded()), "Downloaded");
+        assertEquals(expected.getDownloaded().size(), actual.getDownloaded().size(), "Duplicates");
+        assertEquals(expected.getErrors().keySet(), actual.getErrors().keySet(), "Errors");
+    }
+
+    private interface CrawlerFactory {
+        Crawler create(Site site);
+    }
+
+    private static void checkAll(final CrawlerFactory factory) {
+        for (int seed = 0; seed < SEEDS; seed++) {
+            final Site site = new Site(seed);
+            try (final Crawler crawler = factory.create(site)) {
+                for (int depth = 1; depth <= DEPTH; depth++) {
+                    check(site.oracle(depth), crawler.download(url(0), depth));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void blockingTest() {
+        checkAll(site -> new WebCrawler(site.blocking(), 10, 3, 2));
+    }
+
+    @Test
+    public void singleThreadTest() {
+        checkAll(site -> new WebCrawler(site.blocking(), 1, 1, 1));
+    }
+
+    @Test
+    public void asyncTest() {
+        checkAll(site -> new WebCrawler(site.async(), 3, 2));
+    }
+
+    @Test
+    public void policyTest() {
+        final HostPolicy policy = new HostPolicy(5000, 20, 1, 4);
+        checkAll(site -> new WebCrawler(site.blocking(), 10, 3, 2, null, policy));
+        checkAll(site -> new WebCrawler(site.async(), 3, 2, null, policy));
+    }
+
+    @Test
+    public void throwingDownloaderTest() {
+        checkAll(site -> new WebCrawler(site.throwing(), 3, 2));
+        checkAll(site -> new WebCrawler(site.throwing(), 1, 1, null, new HostPolicy(5000, 20, 1, 4)));
+        checkAll(site -> new WebCrawler(site.blockingThrowing(), 10, 3, 2));
+    }
+
+    private static void checkVisited(final Supplier<? extends VisitedSet> visitedSets) {
+        for (int seed = 0; seed < SEEDS; seed++) {
+            final Site site = new Site(seed);
+            try (final Crawler plain = new WebCrawler(site.async(), 3, 2);
+                 final Crawler blocking = new WebCrawler(site.blocking(), 10, 3, 2, visitedSets);
+                 final Crawler async = new WebCrawler(site.async(), 3, 2, visitedSets)) {
+                for (int depth = 1; depth <= DEPTH; depth++) {
+                    final Result expected = plain.download(url(0), depth);
+                    check(site.oracle(depth), expected);
+                    check(expected, blocking.download(url(0), depth));
+                    check(expected, async.download(url(0), depth));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void exactVisitedTest() {
+        checkVisited(VisitedSet.exact());
+    }
+
+    @Test
+    public void fingerprintVisitedTest() {
+        checkVisited(VisitedSet.fingerprints(16));
+    }
+
+    @Test
+    public void bloomVisitedTest() {
+        checkVisited(VisitedSet.bloom(PAGES, 1e-6));
+    }
+
+    @Test
+    public void nonPositiveDepthTest() {
+        final Site site = new Site(0);
+        try (final Crawler crawler = new WebCrawler(site.blocking(), 2, 2, 2)) {
+            check(site.oracle(0), crawler.download(url(0), 0));
+            check(site.oracle(0), crawler.download(url(0), -1));
+        }
+        assertEquals(0, site.downloads.get());
+    }
+
+    @Test
+    public void storeTest() throws IOException {
+        for (int seed = 0; seed < SEEDS; seed++) {
+            final Site site = new Site(seed);
+            final Path directory = Files.createTempDirectory("crawl");
+            try (final WebCrawler crawler = new WebCrawler(site.async(), 3, 2)) {
+                check(site.oracle(DEPTH), crawler.download(url(0), DEPTH, directory));
+                final int downloads = site.downloads.get();
+                check(site.oracle(DEPTH), crawler.download(url(0), DEPTH, directory));
+                assertEquals(downloads, site.downloads.get(), "Downloads of finished crawl");
+            }
+        }
+    }
+
+    @Test
+    public void interruptedStoreTest() throws IOException, InterruptedException {
+        for (int seed = 0; seed < SEEDS; seed++) {
+            final Site site = new Site(seed);
+            final Path directory = Files.createTempDirectory("crawl");
+            final WebCrawler interrupted = new WebCrawler(site.blocking(), 4, 2, 2, null, new HostPolicy(500, 2, 0, 0));
+            final Thread thread = new Thread(() -> {
+                try {
+                    interrupted.download(url(0), DEPTH, directory);
+                } catch (final IOException ignored) {
+                }
+            });
+            thread.start();
+            Thread.sleep(20);
+            thread.interrupt();
+            thread.join();
+            final int downloads = site.downloads.get();
+            Thread.sleep(20);
+            assertEquals(downloads, site.downloads.get(), "Downloads after interrupted crawl returned");
+            interrupted.close();
+            try (final WebCrawler crawler = new WebCrawler(site.blocking(), 10, 3, 2)) {
+                check(site.oracle(DEPTH), crawler.download(url(0), DEPTH, directory));
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package ru.ifmo.rain.akimov.crawler;
+
+/**
+ * Map from url fingerprints to depths split into segments by fingerprint bits.
+ * Each segment is a linear-probing table of longs with a parallel table of unsigned byte depths,
+ * guarded by its own lock; zero marks an empty slot.
+ */
+class FingerprintSet implements VisitedSet {
+    private static final int SEGMENT_BITS = 6;
+    private static final int MAX_DEPTH = 0xFF;
+
+    private final Segment[] segments;
+
+    private static class Segment {
+        private long[] table;
+        private byte[] depths;
+        private int size;
+
+        public Segment(final int capacity) {
+            table = new long[capacity];
+            depths = new byte[capacity];
+        }
+
+        public synchronized boolean add(final long fingerprint, final int depth) {
+            final int i = find(table, fingerprint);
+            if (table[i] == fingerprint) {
+                if (depth <= (depths[i] & MAX_DEPTH)) {
+                    return false;
+                }
+                depths[i] = (byte) depth;
+                return true;
+            }
+            table[i] = fingerprint;
+            depths[i] = (byte) depth;
+            if (++size > table.length / 4 * 3) {
+                final long[] grownTable = new long[table.length * 2];
+                final byte[] grownDepths = new byte[table.length * 2];
+                for (int j = 0; j < table.length; j++) {
+                    if (table[j] != 0) {
+                        final int k = find(grownTable, table[j]);
+                        grownTable[k] = table[j];
+                        grownDepths[k] = depths[j];
+                    }
+                }
+                table = grownTable;
+                depths = grownDepths;
+            }
+            return true;
+        }
+
+        /**
+         * Returns slot holding {@code fingerprint} or the empty slot it belongs to.
+         */
+        private static int find(final long[] table, final long fingerprint) {
+            final int mask = table.length - 1;
+            for (int i = (int) fingerprint & mask; ; i = (i + 1) & mask) {
+                if (table[i] == 0 || table[i] == fingerprint) {
+                    return i;
+                }
+            }
+        }
+    }
+
+    public FingerprintSet(final int expectedSize) {
+        final int perSegment = Math.max(expectedSize >> SEGMENT_BITS, 1);
+        final int capacity = Integer.highestOneBit(Math.min(perSegment, 1 << 28) * 4 / 3 + 1) << 1;
+        segments = new Segment[1 << SEGMENT_BITS];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(capacity);
+        }
+    }
+
+    @Override
+    public boolean add(final String url, final int depth) {
+        long fingerprint = VisitedSet.fingerprint(url);
+        if (fingerprint == 0) {
+            fingerprint = 1;
+        }
+        return segments[(int) (fingerprint >>> (Long.SIZE - SEGMENT_BITS))].add(fingerprint, Math.min(depth, MAX_DEPTH));
+    }
+}
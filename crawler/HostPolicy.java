@@ -0,0 +1,41 @@
+package ru.ifmo.rain.akimov.crawler;
+
+/**
+ * Limits applied by {@link WebCrawler} to every host on top of the number of simultaneous downloads.
+ */
+public final class HostPolicy {
+    private static final HostPolicy UNLIMITED = new HostPolicy(Double.POSITIVE_INFINITY, 1, 0, 0);
+
+    final double requestsPerSecond;
+    final int burst;
+    final long minBackoffNanos;
+    final long maxBackoffNanos;
+
+    /**
+     * Creates policy.
+     *
+     * @param requestsPerSecond long-term rate of requests to one host, {@link Double#POSITIVE_INFINITY} for no limit.
+     * @param burst             number of requests that may be sent at once after a host was idle.
+     * @param minBackoffMillis  pause after the first failed download from a host, {@code 0} to never pause.
+     *                          The pause doubles with each failure in a row and resets on success.
+     * @param maxBackoffMillis  longest pause.
+     */
+    public HostPolicy(final double requestsPerSecond, final int burst, final long minBackoffMillis, final long maxBackoffMillis) {
+        if (!(requestsPerSecond > 0) || burst < 1 || minBackoffMillis < 0 || maxBackoffMillis < minBackoffMillis) {
+            throw new IllegalArgumentException("Invalid host policy");
+        }
+        this.requestsPerSecond = requestsPerSecond;
+        this.burst = burst;
+        minBackoffNanos = minBackoffMillis * 1_000_000;
+        maxBackoffNanos = maxBackoffMillis * 1_000_000;
+    }
+
+    /**
+     * Returns policy without rate limits and backoff.
+     *
+     * @return unlimited policy.
+     */
+    public static HostPolicy unlimited() {
+        return UNLIMITED;
+    }
+}
@@ -0,0 +1,261 @@
+package ru.ifmo.rain.akimov.crawler;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatcher of downloads grouped by host.
+ * Hosts with pending downloads take turns in a round-robin queue; a host is skipped while it has
+ * {@code perHost} downloads in flight, and put aside on a timer while its token bucket is empty
+ * or it backs off after failures. At most {@code maxInFlight} downloads run at once in total.
+ * A host without downloads is set aside until its bucket is full again and, if it failed,
+ * the longest backoff has passed, so a host that comes back soon keeps its limits.
+ * Cancelled downloads are dropped when their turn comes, without counting against the limits.
+ */
+class HostScheduler {
+    private final int perHost;
+    private final int maxInFlight;
+    private final HostPolicy policy;
+    private final Map<String, Host> hosts;
+    private final Map<String, Host> released;
+    private final Queue<Host> ready;
+    private final ScheduledExecutorService timer;
+    private int inFlight;
+    private int purgeAt = 16;
+
+    /**
+     * Download waiting for its host. {@link #run} has to start the download without blocking
+     * or throwing, and {@link #finished} has to be called once it completes.
+     */
+    interface Download extends Runnable {
+        /**
+         * Checks whether the download is no longer needed.
+         */
+        boolean cancelled();
+
+        /**
+         * Called instead of {@link #run} for a cancelled download.
+         */
+        void cancel();
+    }
+
+    private class Host {
+        private final String name;
+        private final Queue<Download> pending;
+        private int active;
+        private double tokens;
+        private long refilled;
+        private long notBefore;
+        private int failures;
+        private boolean queued;
+        private boolean waiting;
+        private long expires;
+
+        public Host(final String name, final long now) {
+            this.name = name;
+            pending = new ArrayDeque<>();
+            tokens = policy.burst;
+            refilled = now;
+            notBefore = now;
+        }
+
+        private void refill(final long now) {
+            if (now - refilled > 0) {
+                tokens = Math.min(policy.burst, tokens + (now - refilled) * policy.requestsPerSecond / 1e9);
+                refilled = now;
+            }
+        }
+
+        /**
+         * Returns time to wait before the next download may start.
+         */
+        public long delay(final long now) {
+            refill(now);
+            final long backoff = notBefore - now;
+            final long token = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / policy.requestsPerSecond * 1e9);
+            return Math.max(backoff, token);
+        }
+
+        public boolean idle() {
+            return pending.isEmpty() && active == 0;
+        }
+
+        /**
+         * Returns time after which the host behaves as a new one.
+         */
+        public long expires(final long now) {
+            refill(now);
+            final long full = now + (long) Math.ceil((policy.burst - tokens) / policy.requestsPerSecond * 1e9);
+            final long backoff = failures > 0 ? notBefore + policy.maxBackoffNanos : now;
+            return full - backoff > 0 ? full : backoff;
+        }
+    }
+
+    public HostScheduler(final int perHost, final int maxInFlight, final HostPolicy policy) {
+        this.perHost = perHost;
+        this.maxInFlight = maxInFlight;
+        this.policy = policy;
+        hosts = new HashMap<>();
+        released = new HashMap<>();
+        ready = new ArrayDeque<>();
+        timer = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    /**
+     * Queues download from {@code host}.
+     */
+    public void submit(final String host, final Download download) {
+        final List<Runnable> started;
+        synchronized (this) {
+            final Host h = hosts.computeIfAbsent(host, ignored -> {
+                final long now = System.nanoTime();
+                final Host old = released.remove(host);
+                return old != null && old.expires - now > 0 ? old : new Host(host, now);
+            });
+            h.pending.add(download);
+            enqueue(h);
+            started = dispatch();
+        }
+        run(started);
+    }
+
+    /**
+     * Reports completion of a download from {@code host}.
+     *
+     * @param failed whether the download failed with {@link java.io.IOException}.
+     */
+    public void finished(final String host, final boolean failed) {
+        final List<Runnable> started;
+        synchronized (this) {
+            final Host h = hosts.get(host);
+            final long now = System.nanoTime();
+            h.active--;
+            inFlight--;
+            if (failed && policy.minBackoffNanos > 0) {
+                long backoff = policy.minBackoffNanos;
+                for (int i = 0; i < h.failures && backoff < policy.maxBackoffNanos; i++) {
+                    backoff *= 2;
+                }
+                h.failures++;
+                h.notBefore = Math.max(h.notBefore, now + Math.min(backoff, policy.maxBackoffNanos));
+            } else if (!failed) {
+                h.failures = 0;
+            }
+            if (h.idle()) {
+                release(h, now);
+            } else {
+                enqueue(h);
+            }
+            started = dispatch();
+        }
+        run(started);
+    }
+
+    /**
+     * Returns numbers of queued downloads of hosts that have any.
+     *
+     * @return map from host to its queue depth.
+     */
+    public synchronized Map<String, Integer> queueDepths() {
+        final Map<String, Integer> depths = new HashMap<>();
+        hosts.forEach((name, host) -> {
+            if (!host.pending.isEmpty()) {
+                depths.put(name, host.pending.size());
+            }
+        });
+        return depths;
+    }
+
+    private void release(final Host host, final long now) {
+        hosts.remove(host.name);
+        host.expires = host.expires(now);
+        if (host.expires - now > 0) {
+            released.put(host.name, host);
+            if (released.size() > purgeAt) {
+                released.values().removeIf(h -> h.expires - now <= 0);
+                purgeAt = Math.max(16, released.size() * 2);
+            }
+        }
+    }
+
+    /**
+     * Runs started and cancelled downloads. Started ones are already counted as active, so one that throws
+     * does not keep the rest from running; the first exception is rethrown afterwards.
+     */
+    private static void run(final List<Runnable> started) {
+        RuntimeException failure = null;
+        for (final Runnable download : started) {
+            try {
+                download.run();
+            } catch (final RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void enqueue(final Host host) {
+        if (!host.queued && !host.waiting && !host.pending.isEmpty() && host.active < perHost) {
+            host.queued = true;
+            ready.add(host);
+        }
+    }
+
+    private List<Runnable> dispatch() {
+        final List<Runnable> started = new ArrayList<>();
+        final long now = System.nanoTime();
+        while (inFlight < maxInFlight && !ready.isEmpty()) {
+            final Host host = ready.poll();
+            host.queued = false;
+            final Download next = host.pending.peek();
+            if (next.cancelled()) {
+                host.pending.poll();
+                started.add(next::cancel);
+                if (host.idle()) {
+                    release(host, now);
+                } else {
+                    enqueue(host);
+                }
+                continue;
+            }
+            final long delay = host.delay(now);
+            if (delay > 0) {
+                host.waiting = true;
+                try {
+                    timer.schedule(() -> wake(host), delay, TimeUnit.NANOSECONDS);
+                } catch (final RejectedExecutionException ignored) {
+                }
+                continue;
+            }
+            host.tokens--;
+            host.active++;
+            inFlight++;
+            started.add(host.pending.poll());
+            enqueue(host);
+        }
+        return started;
+    }
+
+    private void wake(final Host host) {
+        final List<Runnable> started;
+        synchronized (this) {
+            host.waiting = false;
+            enqueue(host);
+            started = dispatch();
+        }
+        run(started);
+    }
+
+    public void close() {
+        timer.shutdownNow();
+    }
+}
@@ -0,0 +1,138 @@
+package ru.ifmo.rain.akimov.crawler;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Set of visited urls used by {@link WebCrawler} to skip pages it has already handled,
+ * along with the number of levels that were left to crawl below every url, so that a page
+ * reached again by a shorter path is crawled deeper.
+ * Urls are compared after {@link #normalize normalization}. Implementations may report an unvisited url
+ * as visited with a small probability, so the page is not downloaded, but never the other way round.
+ */
+public interface VisitedSet {
+    /**
+     * Marks url as visited with {@code depth} levels left. Concurrent calls for the same url
+     * and depth return {@code true} at most once.
+     *
+     * @param url   url to mark.
+     * @param depth number of levels left, positive.
+     * @return {@code true} if url was not visited before with at least {@code depth} levels left.
+     */
+    boolean add(String url, int depth);
+
+    /**
+     * Exact map from normalized urls to depths. No false positives, but every url is kept as a string.
+     *
+     * @return factory of exact sets.
+     */
+    static Supplier<VisitedSet> exact() {
+        return () -> {
+            final Map<String, Integer> urls = new ConcurrentHashMap<>();
+            return (url, depth) -> {
+                final String normalized = normalize(url);
+                while (true) {
+                    final Integer old = urls.putIfAbsent(normalized, depth);
+                    if (old == null) {
+                        return true;
+                    }
+                    if (old >= depth) {
+                        return false;
+                    }
+                    if (urls.replace(normalized, old, depth)) {
+                        return true;
+                    }
+                }
+            };
+        };
+    }
+
+    /**
+     * Set of 64-bit fingerprints of normalized urls in open-addressing tables with a byte of depth
+     * per url, 12 to 24 bytes per url. Depths above 255 are treated as 255.
+     * Probability that an unvisited url is reported as visited is about {@code n / 2^64}
+     * for {@code n} visited urls, that is, below {@code 10^-10} for a billion urls.
+     *
+     * @param expectedSize expected number of urls.
+     * @return factory of fingerprint sets.
+     */
+    static Supplier<VisitedSet> fingerprints(final int expectedSize) {
+        return () -> new FingerprintSet(expectedSize);
+    }
+
+    /**
+     * Bloom filter over normalized urls whose cells are bytes holding the largest depth of the urls
+     * hashed to them, about {@code 1.44 * log2(1 / falsePositiveRate)} bytes per url.
+     * Probability that an unvisited url is reported as visited, or as visited with more levels left,
+     * stays below {@code falsePositiveRate} while at most {@code expectedSize} urls are visited
+     * and grows beyond it. Depths above 255 are treated as 255.
+     *
+     * @param expectedSize      expected number of urls.
+     * @param falsePositiveRate target false positive probability.
+     * @return factory of Bloom filters.
+     */
+    static Supplier<VisitedSet> bloom(final long expectedSize, final double falsePositiveRate) {
+        return () -> new BloomFilter(expectedSize, falsePositiveRate);
+    }
+
+    /**
+     * Brings url to canonical form: scheme and host are lower-cased, default port, fragment
+     * and {@code .} and {@code ..} path segments are removed, and empty path becomes {@code /}.
+     * Urls that could not be parsed are returned as is.
+     *
+     * @param url url to normalize.
+     * @return normalized url.
+     */
+    static String normalize(final String url) {
+        final URI uri;
+        try {
+            uri = new URI(url).normalize();
+        } catch (final URISyntaxException e) {
+            return url;
+        }
+        if (uri.getScheme() == null || uri.getHost() == null) {
+            return url;
+        }
+        final String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+        int port = uri.getPort();
+        if (port == 80 && scheme.equals("http") || port == 443 && scheme.equals("https")) {
+            port = -1;
+        }
+        final StringBuilder sb = new StringBuilder(url.length()).append(scheme).append("://");
+        if (uri.getRawUserInfo() != null) {
+            sb.append(uri.getRawUserInfo()).append('@');
+        }
+        sb.append(uri.getHost().toLowerCase(Locale.ROOT));
+        if (port != -1) {
+            sb.append(':').append(port);
+        }
+        sb.append(uri.getRawPath().isEmpty() ? "/" : uri.getRawPath());
+        if (uri.getRawQuery() != null) {
+            sb.append('?').append(uri.getRawQuery());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns 64-bit hash of normalized url.
+     *
+     * @param url url to hash.
+     * @return hash of {@code url}.
+     */
+    static long fingerprint(final String url) {
+        final String normalized = normalize(url);
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < normalized.length(); i++) {
+            h = (h ^ normalized.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ h >>> 33;
+    }
+}
@@ -4,23 +4,42 @@ import info.kgeorgiy.java.advanced.crawler.*;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 public class WebCrawler implements Crawler {
+    private static class Page {
+        private int depth;
+        private Document document;
+        private List<String> links;
+        private boolean extracting;
+        private boolean downloaded;
+
+        public Page(final int depth) {
+            this.depth = depth;
+        }
+    }
+
     private static class Query {
         private final Set<String> result;
         private final Map<String, IOException> exceptions;
-        private final Set<String> visited;
+        private final Map<String, Page> pages;
+        private final AtomicInteger inFlight;
+        private final CountDownLatch finished;
+        private final VisitedSet visited;
+        private CrawlStore store;
+        private volatile boolean cancelled;
 
-        public Query() {
+        public Query(final VisitedSet visited) {
+            this.visited = visited;
             result = ConcurrentHashMap.newKeySet();
             exceptions = new ConcurrentHashMap<>();
-            visited = ConcurrentHashMap.newKeySet();
-        }
-
-        public boolean tryVisit(final String url) {
-            return visited.add(url);
+            pages = new ConcurrentHashMap<>();
+            inFlight = new AtomicInteger();
+            finished = new CountDownLatch(1);
         }
 
         public void addUrl(final String url) {
@@ -31,96 +50,340 @@ public class WebCrawler implements Crawler {
             exceptions.put(url, e);
         }
 
+        public boolean markVisited(final String url, final int depth) {
+            return visited == null || visited.add(url, depth);
+        }
+
+        /**
+         * Forgets state of handled page if visited urls are tracked by {@link #visited}.
+         * Page state has to be kept for the store.
+         */
+        public void finish(final String url, final Page page) {
+            if (visited != null && store == null) {
+                pages.remove(url, page);
+            }
+        }
+
+        public void logDiscovered(final String url, final int depth) {
+            if (store != null) {
+                store.discovered(url, depth);
+                compact();
+            }
+        }
+
+        public void logDownloaded(final String url, final List<String> links) {
+            if (store != null) {
+                store.downloaded(url, links);
+                compact();
+            }
+        }
+
+        public void logFailed(final String url, final IOException e) {
+            if (store != null) {
+                store.failed(url, e.getMessage());
+                compact();
+            }
+        }
+
+        private void compact() {
+            if (store.needsSnapshot()) {
+                store.snapshot(this::dump);
+            }
+        }
+
+        private void dump(final CrawlStore.Visitor visitor) {
+            pages.forEach((url, page) -> {
+                final int depth;
+                final boolean downloaded;
+                final List<String> links;
+                synchronized (page) {
+                    depth = page.depth;
+                    downloaded = page.downloaded;
+                    links = page.links;
+                }
+                visitor.discovered(url, depth);
+                final IOException e = exceptions.get(url);
+                if (downloaded) {
+                    visitor.downloaded(url, links);
+                } else if (e != null) {
+                    visitor.failed(url, e.getMessage());
+                }
+            });
+        }
+
+        private CrawlStore.Visitor restorer() {
+            return new CrawlStore.Visitor() {
+                @Override
+                public void discovered(final String url, final int depth) {
+                    markVisited(url, depth);
+                    final Page page = pages.computeIfAbsent(url, ignored -> new Page(depth));
+                    page.depth = Math.max(page.depth, depth);
+                }
+
+                @Override
+                public void downloaded(final String url, final List<String> links) {
+                    final Page page = pages.computeIfAbsent(url, ignored -> new Page(1));
+                    page.downloaded = true;
+                    if (links != null) {
+                        page.links = links;
+                    }
+                    result.add(url);
+                }
+
+                @Override
+                public void failed(final String url, final String message) {
+                    pages.computeIfAbsent(url, ignored -> new Page(1));
+                    exceptions.put(url, new IOException(message));
+                }
+            };
+        }
+
+        public void startTask() {
+            inFlight.incrementAndGet();
+        }
+
+        public void finishTask() {
+            if (inFlight.decrementAndGet() == 0) {
+                finished.countDown();
+            }
+        }
+
+        /**
+         * Waits for the crawl to end. If interrupted, cancels it: no new pages are scheduled, and tasks
+         * in flight are waited for, so nothing is written to the store after the crawl returns.
+         * Interrupt status is not restored here, since it would make closing the store fail.
+         */
+        public void await() {
+            while (true) {
+                try {
+                    finished.await();
+                    return;
+                } catch (final InterruptedException e) {
+                    cancelled = true;
+                }
+            }
+        }
+
+        public void restoreInterrupt() {
+            if (cancelled) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
         public Result getResult() {
             return new Result(new ArrayList<>(result), new HashMap<>(exceptions));
         }
     }
 
     private static class Scheduler {
-        private final Downloader downloader;
+        private final AsyncDownloader downloader;
         private final ExecutorService downloaders;
         private final ExecutorService extractors;
-        private final int perHost;
-        private final Map<String, Host> hosts;
+        private final HostScheduler hosts;
 
-        private static class Host {
-            private final Queue<Runnable> busy;
-            private final Semaphore semaphore;
+        public Scheduler(final AsyncDownloader downloader, final ExecutorService downloaders, final int extractors,
+                         final int perHost, final int maxInFlight, final HostPolicy policy) {
+            this.downloader = downloader;
+            this.downloaders = downloaders;
+            this.extractors = Executors.newFixedThreadPool(extractors);
+            hosts = new HostScheduler(perHost, maxInFlight, policy);
+        }
 
-            public Host(final int perHost) {
-                busy = new LinkedBlockingQueue<>();
-                semaphore = new Semaphore(perHost);
+        /**
+         * Schedules {@code url} with {@code depth} levels left. A page that is already known is not
+         * downloaded again, but if it is reached by a shorter path its links are followed deeper.
+         * Documents of leaf pages are not kept, so such a page is downloaded once more to extract its links.
+         * The same happens to a page whose state was dropped, as its depth is still known to the visited set.
+         */
+        public void discover(final String url, final int depth, final Query query) {
+            if (depth <= 0 || query.cancelled) {
+                return;
             }
-
-            public boolean tryDownload(final Runnable runnable) {
-                if (semaphore.tryAcquire()) {
-                    return true;
-                } else {
-                    busy.add(runnable);
-                    return false;
+            Page page = query.pages.get(url);
+            if (page == null) {
+                if (!query.markVisited(url, depth) || query.exceptions.containsKey(url)) {
+                    return;
+                }
+                final Page fresh = new Page(depth);
+                page = query.pages.putIfAbsent(url, fresh);
+                if (page == null) {
+                    query.logDiscovered(url, depth);
+                    submitDownload(url, fresh, query);
+                    return;
                 }
             }
-
-            public Runnable getAnotherTask() {
-                final Runnable task = busy.poll();
-                if (task == null) {
-                    semaphore.release();
+            final List<String> links;
+            boolean refetch = false;
+            synchronized (page) {
+                if (depth <= page.depth) {
+                    return;
                 }
-                return task;
+                page.depth = depth;
+                query.markVisited(url, depth);
+                links = page.links;
+                if (links == null && !page.extracting && depth > 1) {
+                    if (page.document != null) {
+                        submitExtraction(url, page, query);
+                    } else if (page.downloaded) {
+                        // leaf page: its document was not kept
+                        page.downloaded = false;
+                        refetch = true;
+                    }
+                }
+            }
+            query.logDiscovered(url, depth);
+            if (links != null) {
+                follow(links, depth, query);
+            } else if (refetch) {
+                submitDownload(url, page, query);
             }
         }
 
-        public Scheduler(final Downloader downloader, final int downloaders, final int extractors, final int perHost) {
-            this.downloader = downloader;
-            this.downloaders = Executors.newFixedThreadPool(downloaders);
-            this.extractors = Executors.newFixedThreadPool(extractors);
-            this.perHost = perHost;
-            hosts = new ConcurrentHashMap<>();
+        /**
+         * Continues crawl restored from a store: follows links of extracted pages
+         * and downloads pages that were not downloaded or whose links were lost.
+         */
+        public void resume(final Query query) {
+            final Map<String, Page> fetch = new HashMap<>();
+            final Map<Page, List<String>> follow = new HashMap<>();
+            query.pages.forEach((url, page) -> {
+                if (page.links != null) {
+                    follow.put(page, page.links);
+                } else if (!query.exceptions.containsKey(url) && (!page.downloaded || page.depth > 1)) {
+                    page.downloaded = false;
+                    fetch.put(url, page);
+                }
+            });
+            follow.forEach((page, links) -> {
+                final int depth;
+                synchronized (page) {
+                    depth = page.depth;
+                }
+                follow(links, depth, query);
+            });
+            fetch.forEach((url, page) -> submitDownload(url, page, query));
         }
 
-        private void download(final String url, final Phaser phaser, final Query query, final Host host, final Queue<String> newLayer, final int depth) {
+        private void follow(final List<String> links, final int depth, final Query query) {
+            for (final String link : links) {
+                discover(link, depth - 1, query);
+            }
+        }
+
+        private void submitDownload(final String url, final Page page, final Query query) {
             try {
-                final Document document = downloader.download(url);
-                query.addUrl(url);
-                if (depth > 1) {
-                    extractors.submit(() -> {
-                        try {
-                            final List<String> urls = document.extractLinks();
-                            urls.stream().filter(query::tryVisit).forEach(newLayer::add);
-                        } catch (final IOException ignored) {
-                        }
-                        phaser.arrive();
-                    });
-                } else {
-                    phaser.arrive();
-                }
-            } catch (final IOException e) {
+                final String host = URLUtils.getHost(url);
+                query.startTask();
+                hosts.submit(host, new HostScheduler.Download() {
+                    @Override
+                    public void run() {
+                        start(url).whenCompleteAsync(
+                                (document, e) -> downloaded(url, page, query, host, document, e), extractors);
+                    }
+
+                    @Override
+                    public boolean cancelled() {
+                        return query.cancelled;
+                    }
+
+                    @Override
+                    public void cancel() {
+                        query.finishTask();
+                    }
+                });
+            } catch (final MalformedURLException e) {
                 query.addException(url, e);
-                phaser.arrive();
+                query.finish(url, page);
             }
-            final Runnable newTask = host.getAnotherTask();
-            if (newTask != null) {
-                downloaders.submit(newTask);
+        }
+
+        /**
+         * Starts download of {@code url}. A downloader that throws or returns no future
+         * is reported as a failed download, so its host slot is released.
+         */
+        private CompletableFuture<Document> start(final String url) {
+            try {
+                final CompletableFuture<Document> future = downloader.download(url);
+                if (future == null) {
+                    return CompletableFuture.failedFuture(new IOException("Download of " + url + " was not started"));
+                }
+                return future;
+            } catch (final RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
             }
         }
 
-        public Queue<String> downloadAndExtract(final Queue<String> curLayer, final Query query, final int depth) {
-            final Queue<String> newLayer = new LinkedBlockingQueue<>();
-            final Phaser phaser = new Phaser(curLayer.size());
-            for (final String url : curLayer) {
+        private void submitExtraction(final String url, final Page page, final Query query) {
+            page.extracting = true;
+            query.startTask();
+            extractors.submit(() -> {
                 try {
-                    final String hostName = URLUtils.getHost(url);
-                    final Host host = hosts.computeIfAbsent(hostName, ignored -> new Host(perHost));
-                    final Runnable task = () -> download(url, phaser, query, host, newLayer, depth);
-                    if (host.tryDownload(task)) {
-                        downloaders.submit(task);
+                    extract(url, page, query);
+                } finally {
+                    query.finishTask();
+                }
+            });
+        }
+
+        private void extract(final String url, final Page page, final Query query) {
+            final Document document;
+            synchronized (page) {
+                document = page.document;
+            }
+            List<String> links;
+            try {
+                links = document.extractLinks();
+            } catch (final IOException ignored) {
+                links = List.of();
+            }
+            final int depth;
+            synchronized (page) {
+                page.links = links;
+                page.document = null;
+                depth = page.depth;
+            }
+            query.logDownloaded(url, links);
+            query.finish(url, page);
+            follow(links, depth, query);
+        }
+
+        private void downloaded(final String url, final Page page, final Query query, final String host,
+                                final Document document, final Throwable e) {
+            try {
+                if (e == null) {
+                    query.addUrl(url);
+                    final boolean extract;
+                    synchronized (page) {
+                        page.downloaded = true;
+                        extract = page.depth > 1;
+                        if (extract) {
+                            page.document = document;
+                            submitExtraction(url, page, query);
+                        }
+                    }
+                    if (!extract) {
+                        query.logDownloaded(url, null);
+                        query.finish(url, page);
                     }
-                } catch (final MalformedURLException e) {
-                    query.addException(url, e);
+                } else {
+                    final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    final IOException exception = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                    if (query.result.contains(url)) {
+                        // failed to download leaf page again: keep it as downloaded, without its links
+                        synchronized (page) {
+                            page.downloaded = true;
+                        }
+                        query.logDownloaded(url, null);
+                    } else {
+                        query.addException(url, exception);
+                        query.logFailed(url, exception);
+                    }
+                    query.finish(url, page);
                 }
+            } finally {
+                query.finishTask();
             }
-            phaser.awaitAdvance(0);
-            return newLayer;
+            hosts.finished(host, e != null);
         }
 
         private void shutdown(final ExecutorService executorService) {
@@ -131,27 +394,163 @@ public class WebCrawler implements Crawler {
             }
         }
 
+        public Map<String, Integer> queueDepths() {
+            return hosts.queueDepths();
+        }
+
         public void close() {
-            shutdown(downloaders);
+            hosts.close();
+            if (downloaders != null) {
+                shutdown(downloaders);
+            }
             shutdown(extractors);
         }
     }
 
     private final Scheduler scheduler;
+    private final Supplier<? extends VisitedSet> visitedSets;
 
     public WebCrawler(final Downloader downloader, final int downloaders, final int extractors, final int perHost) {
-        scheduler = new Scheduler(downloader, downloaders, extractors, perHost);
+        this(downloader, downloaders, extractors, perHost, null);
+    }
+
+    /**
+     * Creates crawler that remembers visited pages in sets made by {@code visitedSets}, one per crawl.
+     * State of a page is dropped once it is handled; if a shorter path to it is found later,
+     * the page is downloaded again to follow its links deeper.
+     *
+     * @param downloader  downloader.
+     * @param downloaders number of simultaneous downloads.
+     * @param extractors  number of threads extracting links.
+     * @param perHost     maximal number of simultaneous downloads from one host.
+     * @param visitedSets factory of visited sets, {@code null} to keep state of every page.
+     */
+    public WebCrawler(final Downloader downloader, final int downloaders, final int extractors, final int perHost,
+                      final Supplier<? extends VisitedSet> visitedSets) {
+        this(downloader, downloaders, extractors, perHost, visitedSets, HostPolicy.unlimited());
+    }
+
+    /**
+     * Creates crawler that additionally limits request rate to every host and backs off from failing hosts.
+     * Hosts with pending downloads take turns, so one large host does not hold up the others.
+     *
+     * @param downloader  downloader.
+     * @param downloaders number of simultaneous downloads.
+     * @param extractors  number of threads extracting links.
+     * @param perHost     maximal number of simultaneous downloads from one host.
+     * @param visitedSets factory of visited sets, {@code null} to keep state of every page.
+     * @param policy      limits applied to every host.
+     */
+    public WebCrawler(final Downloader downloader, final int downloaders, final int extractors, final int perHost,
+                      final Supplier<? extends VisitedSet> visitedSets, final HostPolicy policy) {
+        final ExecutorService pool = Executors.newFixedThreadPool(downloaders);
+        scheduler = new Scheduler(AsyncDownloader.of(downloader, pool), pool, extractors, perHost, downloaders, policy);
+        this.visitedSets = visitedSets;
+    }
+
+    /**
+     * Creates crawler driving an asynchronous downloader. No thread waits for a download in progress,
+     * so the number of downloads in flight is limited only by {@code perHost} and the number of hosts.
+     *
+     * @param downloader asynchronous downloader.
+     * @param extractors number of threads handling downloaded pages and extracting links.
+     * @param perHost    maximal number of simultaneous downloads from one host.
+     */
+    public WebCrawler(final AsyncDownloader downloader, final int extractors, final int perHost) {
+        this(downloader, extractors, perHost, null);
     }
 
+    /**
+     * Creates crawler driving an asynchronous downloader and remembering visited pages in sets
+     * made by {@code visitedSets}, as {@link #WebCrawler(Downloader, int, int, int, Supplier)} does.
+     *
+     * @param downloader  asynchronous downloader.
+     * @param extractors  number of threads handling downloaded pages and extracting links.
+     * @param perHost     maximal number of simultaneous downloads from one host.
+     * @param visitedSets factory of visited sets, {@code null} to keep state of every page.
+     */
+    public WebCrawler(final AsyncDownloader downloader, final int extractors, final int perHost,
+                      final Supplier<? extends VisitedSet> visitedSets) {
+        this(downloader, extractors, perHost, visitedSets, HostPolicy.unlimited());
+    }
+
+    /**
+     * Creates crawler driving an asynchronous downloader with limits applied to every host,
+     * as {@link #WebCrawler(Downloader, int, int, int, Supplier, HostPolicy)} does.
+     *
+     * @param downloader  asynchronous downloader.
+     * @param extractors  number of threads handling downloaded pages and extracting links.
+     * @param perHost     maximal number of simultaneous downloads from one host.
+     * @param visitedSets factory of visited sets, {@code null} to keep state of every page.
+     * @param policy      limits applied to every host.
+     */
+    public WebCrawler(final AsyncDownloader downloader, final int extractors, final int perHost,
+                      final Supplier<? extends VisitedSet> visitedSets, final HostPolicy policy) {
+        scheduler = new Scheduler(downloader, null, extractors, perHost, Integer.MAX_VALUE, policy);
+        this.visitedSets = visitedSets;
+    }
+
+    /**
+     * Returns numbers of downloads waiting for their hosts, for hosts that have any.
+     *
+     * @return map from host to the number of its waiting downloads.
+     */
+    public Map<String, Integer> getQueueDepths() {
+        return scheduler.queueDepths();
+    }
+
+    private Query newQuery() {
+        return new Query(visitedSets == null ? null : visitedSets.get());
+    }
+
+    /**
+     * Crawls pages reachable from {@code url} in fewer than {@code depth} steps.
+     * Links are scheduled as soon as they are extracted, so slow pages of one level do not hold back
+     * the next one; the crawl ends when no download or extraction is in flight.
+     * If the calling thread is interrupted, no new pages are scheduled, and pages handled by then are
+     * returned once downloads in flight complete; the interrupt status is kept.
+     */
     @Override
     public Result download(final String url, final int depth) {
-        final Query query = new Query();
-        query.tryVisit(url);
-        Queue<String> curLayer = new LinkedBlockingQueue<>(1);
-        curLayer.add(url);
-        for (int i = 0; i < depth; i++) {
-            curLayer = scheduler.downloadAndExtract(curLayer, query, depth - i);
+        final Query query = newQuery();
+        try {
+            return crawl(query, () -> scheduler.discover(url, depth, query));
+        } finally {
+            query.restoreInterrupt();
         }
+    }
+
+    /**
+     * Crawls like {@link #download(String, int)}, keeping crawl state in {@code directory}.
+     * If the directory holds state of an interrupted crawl, it is resumed: downloaded pages are not
+     * downloaded again and are reported in the result along with pages downloaded now.
+     * State is an append-only log compacted into a snapshot from time to time.
+     * An interrupted crawl leaves complete state, from which it is resumed by the next call.
+     *
+     * @param url       start url.
+     * @param depth     crawl depth.
+     * @param directory directory of crawl state.
+     * @return downloaded pages and errors of the whole crawl.
+     * @throws IOException if crawl state could not be read or written.
+     */
+    public Result download(final String url, final int depth, final Path directory) throws IOException {
+        final Query query = newQuery();
+        try (final CrawlStore store = CrawlStore.open(directory, query.restorer())) {
+            query.store = store;
+            return crawl(query, () -> {
+                scheduler.resume(query);
+                scheduler.discover(url, depth, query);
+            });
+        } finally {
+            query.restoreInterrupt();
+        }
+    }
+
+    private static Result crawl(final Query query, final Runnable start) {
+        query.startTask();
+        start.run();
+        query.finishTask();
+        query.await();
         return query.getResult();
     }
 
@@ -0,0 +1,10 @@
+#!/usr/bin/env bash
+cd ../../../../../
+pp=${PWD##*/}
+cd ..
+rm -r out/production/Crawler 2>/dev/null
+mkdir -p out/production/Crawler
+cd $pp
+cd ru/ifmo/rain/akimov/crawler
+lib=../../../../../../lib
+javac -classpath $lib/junit-platform-console-standalone-1.6.2.jar:$lib/info.kgeorgiy.java.advanced.crawler.jar -d ../../../../../../out/production/Crawler/ *.java
@@ -0,0 +1,5 @@
+#!/usr/bin/env bash
+./compile.sh
+cd ../../../../../../out/production/Crawler/
+lib=../../../lib
+java -jar $lib/junit-platform-console-standalone-1.6.2.jar -cp .:$lib/info.kgeorgiy.java.advanced.crawler.jar -c ru.ifmo.rain.akimov.crawler.CrawlerTests